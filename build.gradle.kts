@@ -26,6 +26,12 @@ dependencies {
     compileOnly("org.slf4j:slf4j-api:2.0.7")
     implementation("org.jsoup:jsoup:1.15.3")
 
+    testRuntimeOnly("org.slf4j:slf4j-api:2.0.7")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
 }
 repositories {
     mavenCentral()
@@ -36,6 +42,26 @@ tasks.jar {
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
 }
 
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the load driver against the embedded fixture origin"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("org.ferrymehdi.plugin.loadtest.LoadDriver")
+    args = (project.findProperty("loadTestArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+tasks.register<JavaExec>("routingBenchmark") {
+    group = "verification"
+    description = "Measures the cost of rejecting identifiers that belong to other sources"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("org.ferrymehdi.plugin.loadtest.IdentifierRoutingBenchmark")
+    args = (project.findProperty("benchmarkArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+}
+
 
 publishing {
     publications {
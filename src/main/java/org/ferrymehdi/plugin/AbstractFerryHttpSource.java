@@ -2,25 +2,79 @@ package org.ferrymehdi.plugin;
 
 
 import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
 import com.sedmelluq.discord.lavaplayer.tools.ExceptionTools;
+import com.sedmelluq.discord.lavaplayer.tools.ExecutorTools;
 import com.sedmelluq.discord.lavaplayer.tools.http.HttpContextFilter;
 import com.sedmelluq.discord.lavaplayer.tools.io.HttpClientTools;
 import com.sedmelluq.discord.lavaplayer.tools.io.HttpConfigurable;
 import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
 import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterfaceManager;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.CookieStore;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.ferrymehdi.plugin.cache.Codec;
+import org.ferrymehdi.plugin.cache.SharedCache;
+import org.ferrymehdi.plugin.cache.SharedStageCache;
+import org.ferrymehdi.plugin.http.CachingDnsResolver;
+import org.ferrymehdi.plugin.http.CompositeHttpContextFilter;
+import org.ferrymehdi.plugin.http.ConnectionWarmer;
+import org.ferrymehdi.plugin.http.DeadlineExceededException;
+import org.ferrymehdi.plugin.http.FetchedPage;
+import org.ferrymehdi.plugin.http.HostLimitingFilter;
+import org.ferrymehdi.plugin.http.HostRateLimiter;
+import org.ferrymehdi.plugin.http.RequestScope;
+import org.ferrymehdi.plugin.http.RequestScopeFilter;
+import org.ferrymehdi.plugin.http.SessionPool;
+import org.ferrymehdi.plugin.pipeline.ScrapePipeline;
+import org.ferrymehdi.plugin.pipeline.Stage;
+import org.ferrymehdi.plugin.pipeline.StageListener;
+import org.ferrymehdi.plugin.pipeline.StageMetrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 public abstract class AbstractFerryHttpSource implements AudioSourceManager, HttpConfigurable {
+    private static final HostRateLimiter SHARED_HOST_LIMITER = new HostRateLimiter();
+    // Managers can be shared between sources, and their client can only use one resolver.
+    private static final Map<HttpInterfaceManager, CachingDnsResolver> DNS_RESOLVERS = new WeakHashMap<>();
 
     protected final HttpInterfaceManager httpInterfaceManager;
+    private final HostRateLimiter hostLimiter;
+    private final StageMetrics stageMetrics = new StageMetrics();
+    private volatile ExecutorService executor;
+    private volatile StageListener stageListener;
+    private volatile SessionPool sessionPool;
+    private volatile SharedCache sharedCache;
+    private final CachingDnsResolver dnsResolver;
+    private final ConnectionWarmer connectionWarmer;
+    private volatile long warmUpRefreshMillis = TimeUnit.MINUTES.toMillis(1);
+    private final AtomicLong cancelledResolutions = new AtomicLong();
+    private final AtomicLong abortedRequests = new AtomicLong();
+    private final Map<Operation, Long> deadlineNanos = new ConcurrentHashMap<>();
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+    private volatile RequestConfig requestConfig;
 
     public AbstractFerryHttpSource() {
         this(true);
@@ -31,25 +85,426 @@ public abstract class AbstractFerryHttpSource implements AudioSourceManager, Htt
     }
 
     public AbstractFerryHttpSource(HttpInterfaceManager httpInterfaceManager, boolean withoutCookies) {
+        this(httpInterfaceManager, withoutCookies, SHARED_HOST_LIMITER);
+    }
+
+    /**
+     * @param hostLimiter
+     *         The limiter that admits requests per host, null to send requests without any limits
+     */
+    public AbstractFerryHttpSource(HttpInterfaceManager httpInterfaceManager, boolean withoutCookies, HostRateLimiter hostLimiter) {
         this.httpInterfaceManager = httpInterfaceManager;
+        this.hostLimiter = hostLimiter;
+
+        final List<HttpContextFilter> filters = new ArrayList<>();
+        filters.add(new RequestScopeFilter(() -> requestConfig));
 
         if (withoutCookies) {
-            this.httpInterfaceManager.setHttpContextFilter(new FuckCookies());
+            filters.add(new FuckCookies());
+        }
+
+        if (hostLimiter != null) {
+            filters.add(new HostLimitingFilter(hostLimiter));
+        }
+
+        this.httpInterfaceManager.setHttpContextFilter(new CompositeHttpContextFilter(filters));
+
+        this.dnsResolver = dnsResolverOf(httpInterfaceManager);
+        this.connectionWarmer = new ConnectionWarmer(this::getHttpInterface, this::getExecutor, dnsResolver);
+        this.httpInterfaceManager.configureRequests(this::captureRequestConfig);
+
+        for (final Operation operation : Operation.values()) {
+            deadlineNanos.put(operation, 0L);
         }
     }
 
+    /**
+     * @return The limiter shared by all sources that were not given their own one
+     */
+    public static HostRateLimiter getSharedHostLimiter() {
+        return SHARED_HOST_LIMITER;
+    }
+
+    /**
+     * @return The limiter used by this source, exposes per host queue depth and wait times. Null if disabled.
+     */
+    public HostRateLimiter getHostLimiter() {
+        return hostLimiter;
+    }
+
     public HttpInterface getHttpInterface() {
         return httpInterfaceManager.getInterface();
     }
 
+    /**
+     * @return Cheap check that rejects identifiers which can not belong to this source, null if there is none
+     */
+    public IdentifierFilter getIdentifierFilter() {
+        return null;
+    }
+
+    /**
+     * @return Whether the identifier should be looked at any further, sources call this first in loadItem
+     */
+    protected boolean isCandidate(String identifier) {
+        final IdentifierFilter filter = getIdentifierFilter();
+        return filter == null || filter.mayMatch(identifier);
+    }
+
+    /**
+     * Resolves the known hosts of this source and opens connections to them, and warms up the session pool if one
+     * is set. Repeated periodically after the first call, see {@link #setWarmUpRefreshInterval(long, TimeUnit)}.
+     *
+     * @return A future that completes once this pass is done, failures to reach a host do not fail it
+     */
+    public CompletableFuture<Void> warmUp() {
+        connectionWarmer.addUrls(getWarmUpUrls());
+        connectionWarmer.startRefresh(warmUpRefreshMillis, TimeUnit.MILLISECONDS);
+
+        return CompletableFuture.allOf(connectionWarmer.warmUp(), warmUpSessions());
+    }
+
+    /**
+     * @return Whether the first warm-up pass is done, traffic can be held back until then
+     */
+    public boolean isWarmedUp() {
+        return connectionWarmer.isReady();
+    }
+
+    /**
+     * @return A future that completes once the first warm-up pass is done
+     */
+    public CompletableFuture<Void> getWarmUpFuture() {
+        return connectionWarmer.getReadyFuture();
+    }
+
+    /**
+     * @param interval
+     *         How often addresses are refreshed and connections reopened after warming up, 0 for never. Only applies
+     *         if set before the first warm-up.
+     */
+    public void setWarmUpRefreshInterval(long interval, TimeUnit unit) {
+        this.warmUpRefreshMillis = unit.toMillis(interval);
+    }
+
+    public ConnectionWarmer getConnectionWarmer() {
+        return connectionWarmer;
+    }
+
+    /**
+     * @return The resolver of the http interface manager, shared with the other sources that use the same manager
+     */
+    public CachingDnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    private static CachingDnsResolver dnsResolverOf(HttpInterfaceManager httpInterfaceManager) {
+        synchronized (DNS_RESOLVERS) {
+            CachingDnsResolver resolver = DNS_RESOLVERS.get(httpInterfaceManager);
+
+            if (resolver == null) {
+                final CachingDnsResolver created = new CachingDnsResolver();
+                httpInterfaceManager.configureBuilder((builder) -> builder.setDnsResolver(created));
+                DNS_RESOLVERS.put(httpInterfaceManager, created);
+                resolver = created;
+            }
+
+            return resolver;
+        }
+    }
+
+    /**
+     * @return Urls of the hosts this source always talks to, warmed up by {@link #warmUp()}
+     */
+    protected Collection<String> getWarmUpUrls() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Remembers the host of a media url, so later warm-up passes also cover the CDN nodes media is served from.
+     */
+    void recordMediaUrl(String url) {
+        connectionWarmer.addUrl(url);
+    }
+
+    /**
+     * @return How many tracks were stopped while their playback url was still being resolved
+     */
+    public long getCancelledResolutionCount() {
+        return cancelledResolutions.get();
+    }
+
+    /**
+     * @return How many in-flight requests were aborted because the track they were sent for was stopped
+     */
+    public long getAbortedRequestCount() {
+        return abortedRequests.get();
+    }
+
+    void recordCancellation(boolean resolving, int abortedRequestCount) {
+        if (resolving) {
+            cancelledResolutions.incrementAndGet();
+        }
+
+        abortedRequests.addAndGet(abortedRequestCount);
+    }
+
+    /**
+     * @param budget
+     *         How long the operation may take in total, including retries and waiting for the host limiter. Each
+     *         request within it gets at most the remaining time as its timeouts. 0 for no deadline, the default.
+     */
+    public void setDeadline(Operation operation, long budget, TimeUnit unit) {
+        deadlineNanos.put(operation, unit.toNanos(budget));
+    }
+
+    public long getDeadline(Operation operation, TimeUnit unit) {
+        return unit.convert(deadlineNanos.get(operation), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return How many operations of this source failed because they ran out of time. An operation that runs within
+     * another one, like the search of a load, is counted once, as the innermost one whose deadline passed.
+     */
+    public long getDeadlineExceededCount() {
+        return deadlinesExceeded.get();
+    }
+
+    /**
+     * Runs an operation within its deadline, see {@link #setDeadline(Operation, long, TimeUnit)}.
+     *
+     * @throws DeadlineExceededException
+     *         If the operation ran out of time, whatever error that caused
+     */
+    protected <T> T withDeadline(Operation operation, DeadlineTask<T> task) throws IOException {
+        final long budget = deadlineNanos.get(operation);
+
+        if (budget <= 0) {
+            return task.run();
+        }
+
+        final RequestScope scope = RequestScope.withDeadline(operation.description, budget, TimeUnit.NANOSECONDS);
+
+        try (RequestScope.Binding ignored = scope.bind()) {
+            return task.run();
+        } catch (IOException | RuntimeException e) {
+            // Requests aborted at the deadline fail with all kinds of errors.
+            final DeadlineExceededException exceeded = e instanceof DeadlineExceededException
+                ? (DeadlineExceededException) e
+                : scope.deadlineExceeded(e);
+
+            if (exceeded == null) {
+                throw e;
+            }
+
+            // The error names the innermost spent deadline, operations around it that also ran out do not count again.
+            if (scope.isExpired() && exceeded.getOperation().equals(operation.description)) {
+                deadlinesExceeded.incrementAndGet();
+            }
+
+            throw exceeded;
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * @return Executor for background work of this source, such as prefetching. Created on first use.
+     */
+    public ExecutorService getExecutor() {
+        ExecutorService current = executor;
+
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+
+                if (current == null) {
+                    current = Executors.newCachedThreadPool(new DaemonThreadFactory("ferry-" + getSourceName()));
+                    executor = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    /**
+     * Sends a request with the cookies of the session, or a plain request if the session is null.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request, SessionPool.Session session) throws IOException {
+        final HttpInterface httpInterface = getHttpInterface();
+        return session != null ? session.execute(httpInterface, request) : httpInterface.execute(request);
+    }
+
+    public SessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    /**
+     * @param sessionPool
+     *         Pool of warmed sessions to reuse across resolutions, null to start every resolution without cookies.
+     *         Only used by sources that provide a {@link #getSessionInitializer() session initializer}.
+     */
+    public void setSessionPool(SessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * Fills and warms up the session pool ahead of the first resolution.
+     *
+     * @return A future that completes once all sessions are warmed up, right away if sessions are not in use
+     */
+    public CompletableFuture<Void> warmUpSessions() {
+        final SessionPool pool = sessionPool;
+        final SessionPool.Initializer initializer = getSessionInitializer();
+
+        if (pool == null || initializer == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return pool.warmUp(initializer, getExecutor(), this::getHttpInterface);
+    }
+
+    /**
+     * @return How sessions of this source are set up, null if the source does not support sessions
+     */
+    protected SessionPool.Initializer getSessionInitializer() {
+        return null;
+    }
+
+    /**
+     * @return A session from the pool, or null if sessions are not in use
+     */
+    protected SessionPool.Session acquireSession() {
+        final SessionPool pool = sessionPool;
+        final SessionPool.Initializer initializer = getSessionInitializer();
+
+        if (pool == null || initializer == null) {
+            return null;
+        }
+
+        return pool.acquire(initializer, getExecutor(), this::getHttpInterface);
+    }
+
+    public SharedCache getSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * @param sharedCache
+     *         Cache consulted before network work, such as resolving metadata or media urls. Can be shared between
+     *         sources and, with a shared backend, between nodes. Null to always resolve.
+     */
+    public void setSharedCache(SharedCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Creates a view of the {@link #setSharedCache(SharedCache) shared cache} for one kind of value of this source,
+     * with keys prefixed by the source name and the kind.
+     */
+    protected <K, V> SharedStageCache<K, V> sharedCache(String kind, Function<K, String> keys, Codec<V> codec, Duration ttl) {
+        return new SharedStageCache<>(this::getSharedCache, getSourceName() + ":" + kind, keys, codec, ttl);
+    }
+
+    /**
+     * Fetches a page and reads its body as UTF-8.
+     *
+     * @return The page, or null if the server responded with 404
+     * @throws IOException
+     *         On any status code other than 200 and 404
+     */
+    public FetchedPage fetchPage(HttpUriRequest request) throws IOException {
+        return fetchPage(request, null);
+    }
+
+    /**
+     * Fetches a page within a session, see {@link #fetchPage(HttpUriRequest)}.
+     *
+     * @param session
+     *         The session whose cookies are sent and updated, null for none
+     */
+    public FetchedPage fetchPage(HttpUriRequest request, SessionPool.Session session) throws IOException {
+        try (final CloseableHttpResponse response = execute(request, session)) {
+            final int statusCode = response.getStatusLine().getStatusCode();
+
+            if (statusCode != 200) {
+                if (statusCode == 404) {
+                    return null;
+                }
+
+                throw new IOException("Unexpected status code for " + request.getURI() + ": " + statusCode);
+            }
+
+            final List<String> cookies = new ArrayList<>();
+
+            for (final Header header : response.getHeaders("Set-Cookie")) {
+                cookies.add(header.getValue().split(";", 2)[0]);
+            }
+
+            return new FetchedPage(
+                request.getURI().toString(),
+                IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8),
+                cookies,
+                session
+            );
+        }
+    }
+
+    /**
+     * Starts a pipeline whose stages report to the metrics of this source.
+     */
+    protected <I, O> ScrapePipeline<I, O> pipeline(String name, Stage<I, O> first) {
+        return ScrapePipeline.start(name, first, this::onStageComplete);
+    }
+
+    /**
+     * @return Run counts and timings of every pipeline stage of this source
+     */
+    public StageMetrics getStageMetrics() {
+        return stageMetrics;
+    }
+
+    /**
+     * @param stageListener
+     *         Additional listener for pipeline stage runs, for example to export them to a metrics system
+     */
+    public void setStageListener(StageListener stageListener) {
+        this.stageListener = stageListener;
+    }
+
+    private void onStageComplete(String pipeline, String stage, long nanos, boolean cacheHit, int attempts, Throwable error) {
+        stageMetrics.onStageComplete(pipeline, stage, nanos, cacheHit, attempts, error);
+
+        final StageListener listener = stageListener;
+
+        if (listener != null) {
+            listener.onStageComplete(pipeline, stage, nanos, cacheHit, attempts, error);
+        }
+    }
+
     @Override
     public void shutdown() {
+        connectionWarmer.shutdown();
+
+        final ExecutorService current = executor;
+
+        if (current != null) {
+            ExecutorTools.shutdownExecutor(current, getSourceName() + " background");
+        }
+
         ExceptionTools.closeWithWarnings(httpInterfaceManager);
     }
 
     @Override
     public void configureRequests(Function<RequestConfig, RequestConfig> configurator) {
-        httpInterfaceManager.configureRequests(configurator);
+        httpInterfaceManager.configureRequests(configurator.andThen(this::captureRequestConfig));
+    }
+
+    private RequestConfig captureRequestConfig(RequestConfig config) {
+        // Timeouts within a deadline are lowered based on the config of the client.
+        this.requestConfig = config;
+        return config;
     }
 
     @Override
@@ -57,18 +512,32 @@ public abstract class AbstractFerryHttpSource implements AudioSourceManager, Htt
         httpInterfaceManager.configureBuilder(configurator);
     }
 
+    /**
+     * Operations that run within a deadline.
+     */
+    public enum Operation {
+        LOAD_ITEM("load the item"),
+        SEARCH("search"),
+        PLAYBACK_URL("resolve the playback url");
+
+        private final String description;
+
+        Operation(String description) {
+            this.description = description;
+        }
+    }
+
+    @FunctionalInterface
+    protected interface DeadlineTask<T> {
+        T run() throws IOException;
+    }
+
     public static class FuckCookies implements HttpContextFilter {
         @Override
         public void onContextOpen(HttpClientContext context) {
-            CookieStore cookieStore = context.getCookieStore();
-
-            if (cookieStore == null) {
-                cookieStore = new BasicCookieStore();
-                context.setCookieStore(cookieStore);
-            }
-
-            // Reset cookies for each sequence of requests.
-            cookieStore.clear();
+            // Reset cookies for each sequence of requests. The store is replaced rather than cleared, as the
+            // previous sequence may have used the store of a pooled session.
+            context.setCookieStore(new BasicCookieStore());
         }
 
         @Override
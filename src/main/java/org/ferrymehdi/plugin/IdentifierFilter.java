@@ -0,0 +1,142 @@
+package org.ferrymehdi.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cheap check whether an identifier could belong to a source, done before any regular expression runs. Lavaplayer
+ * offers every identifier to every source, so most identifiers a source sees are foreign ones.
+ * <p>
+ * An identifier passes if it starts with one of the prefixes, or is an http(s) url whose host is one of the domains
+ * or a subdomain of one. Identifiers that pass still have to be validated by the source. Checks do not allocate.
+ */
+public final class IdentifierFilter {
+    private final String[] prefixes;
+    private final String[] domains;
+    private final boolean[] firstChars = new boolean[128];
+
+    private IdentifierFilter(List<String> prefixes, List<String> domains) {
+        this.prefixes = prefixes.toArray(new String[0]);
+        this.domains = domains.toArray(new String[0]);
+
+        for (final String prefix : this.prefixes) {
+            markFirstChar(prefix.charAt(0));
+        }
+
+        if (this.domains.length > 0) {
+            markFirstChar('h');
+            markFirstChar('H');
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return False if the identifier can not belong to the source
+     */
+    public boolean mayMatch(String identifier) {
+        if (identifier.isEmpty()) {
+            return false;
+        }
+
+        final char first = identifier.charAt(0);
+
+        if (first >= firstChars.length || !firstChars[first]) {
+            return false;
+        }
+
+        for (final String prefix : prefixes) {
+            if (identifier.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return domains.length > 0 && matchesDomain(identifier);
+    }
+
+    private boolean matchesDomain(String identifier) {
+        final int hostStart;
+
+        if (identifier.regionMatches(true, 0, "https://", 0, 8)) {
+            hostStart = 8;
+        } else if (identifier.regionMatches(true, 0, "http://", 0, 7)) {
+            hostStart = 7;
+        } else {
+            return false;
+        }
+
+        int hostEnd = hostStart;
+
+        while (hostEnd < identifier.length()) {
+            final char c = identifier.charAt(hostEnd);
+
+            if (c == '/' || c == '?' || c == '#' || c == ':') {
+                break;
+            }
+
+            hostEnd++;
+        }
+
+        for (final String domain : domains) {
+            final int domainStart = hostEnd - domain.length();
+
+            if (domainStart < hostStart || !identifier.regionMatches(true, domainStart, domain, 0, domain.length())) {
+                continue;
+            }
+
+            // Either the whole host, or a subdomain of it.
+            if (domainStart == hostStart || identifier.charAt(domainStart - 1) == '.') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void markFirstChar(char c) {
+        if (c < firstChars.length) {
+            firstChars[c] = true;
+        } else {
+            // Not covered by the table, disable the shortcut.
+            Arrays.fill(firstChars, true);
+        }
+    }
+
+    public static final class Builder {
+        private final List<String> prefixes = new ArrayList<>();
+        private final List<String> domains = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * @param prefix
+         *         A case sensitive prefix, for example {@code phsearch:}
+         */
+        public Builder prefix(String prefix) {
+            if (prefix.isEmpty()) {
+                throw new IllegalArgumentException("Prefix must not be empty");
+            }
+
+            prefixes.add(prefix);
+            return this;
+        }
+
+        /**
+         * @param domain
+         *         A domain, for example {@code pornhub.com}. Its subdomains match as well.
+         */
+        public Builder domain(String domain) {
+            domains.add(domain.toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        public IdentifierFilter build() {
+            return new IdentifierFilter(prefixes, domains);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import org.ferrymehdi.plugin.http.RequestScope;
+import org.ferrymehdi.plugin.http.RequestScopeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +19,9 @@ public class Mp3Track extends DelegatedAudioTrack {
     protected static final Logger log = LoggerFactory.getLogger(Mp3Track.class);
 
     private final AbstractFerryHttpSource manager;
+    private final RequestScope requestScope = new RequestScope();
+    private volatile boolean processing;
+    private volatile boolean resolving;
 
     public Mp3Track(AudioTrackInfo trackInfo, AbstractFerryHttpSource manager) {
         super(trackInfo);
@@ -29,14 +34,56 @@ public class Mp3Track extends DelegatedAudioTrack {
 
     @Override
     public void process(LocalAudioTrackExecutor executor) throws Exception {
-        try (HttpInterface httpInterface = getHttpInterface()) {
+        processing = true;
+        resolving = true;
+
+        try (RequestScope.Binding ignored = requestScope.bind(); HttpInterface httpInterface = getHttpInterface()) {
             loadStream(executor, httpInterface);
+        } catch (Exception e) {
+            if (requestScope.isCancelled()) {
+                // Aborted requests fail with all kinds of I/O errors, report them as the interrupt a stop causes.
+                final InterruptedException interrupted = new InterruptedException("Track was stopped");
+                interrupted.initCause(e);
+                throw interrupted;
+            }
+
+            throw e;
+        } finally {
+            processing = false;
+            resolving = false;
+        }
+    }
+
+    @Override
+    protected void processDelegate(InternalAudioTrack delegate, LocalAudioTrackExecutor localExecutor) throws Exception {
+        resolving = false;
+        super.processDelegate(delegate, localExecutor);
+    }
+
+    /**
+     * Also aborts the requests of the track that are still in flight, for example while its playback url is being
+     * resolved, which would otherwise hold a thread and a connection until they complete.
+     */
+    @Override
+    public void stop() {
+        // Stop first, so the executor already treats the failing requests as part of the stop.
+        super.stop();
+
+        if (processing) {
+            final int aborted = requestScope.cancel();
+
+            if (aborted >= 0) {
+                manager.recordCancellation(resolving, aborted);
+            }
         }
     }
 
     protected void loadStream(LocalAudioTrackExecutor localExecutor, HttpInterface httpInterface) throws Exception {
         final String trackUrl = getPlaybackUrl();
         log.debug("Starting {} track from URL: {}", manager.getSourceName(), trackUrl);
+        manager.recordMediaUrl(trackUrl);
+        // The stream reads its body while the track plays, stopping the track has to be able to abort it.
+        RequestScopeFilter.keepRegisteredUntilClose(httpInterface.getContext());
         // Setting contentLength (last param) to null makes it default to Long.MAX_VALUE
         try (
                 final var stream = this.wrapStream(
@@ -4,14 +4,73 @@ import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegAudioTrack;
 import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import org.ferrymehdi.plugin.media.AudioDiskCache;
+import org.ferrymehdi.plugin.media.CachedAacAudioTrack;
+import org.ferrymehdi.plugin.media.RecordingMpegAudioTrack;
 
 public abstract class MpegTrack extends Mp3Track {
+    private volatile long startTimecode;
+
     public MpegTrack(AudioTrackInfo trackInfo, AbstractFerryHttpSource manager) {
         super(trackInfo, manager);
     }
 
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        final AudioDiskCache cache = getAudioCache();
+        final AudioDiskCache.Entry entry = cache != null ? cache.open(getCacheKey()) : null;
+
+        if (entry == null) {
+            super.process(executor);
+            return;
+        }
+
+        log.debug("Starting {} track {} from the audio cache", getSourceManager().getSourceName(), trackInfo.identifier);
+        final CachedAacAudioTrack cached = new CachedAacAudioTrack(this.trackInfo, entry);
+
+        try {
+            processDelegate(cached, executor);
+        } finally {
+            entry.close();
+        }
+
+        if (cached.isCutShort()) {
+            // The play that was storing the entry stopped early, stream the rest after the last cached sample. The frames
+            // of the cached part that are still buffered are played first.
+            streamFrom(executor, cached.getResumeTimecode());
+        }
+    }
+
+    private void streamFrom(LocalAudioTrackExecutor executor, long timecode) throws Exception {
+        startTimecode = timecode;
+
+        try {
+            super.process(executor);
+        } finally {
+            startTimecode = 0;
+        }
+    }
+
     @Override
     protected InternalAudioTrack createAudioTrack(AudioTrackInfo trackInfo, SeekableInputStream stream) {
+        final AudioDiskCache cache = getAudioCache();
+
+        if (cache != null) {
+            return new RecordingMpegAudioTrack(trackInfo, stream, cache, getCacheKey(), startTimecode);
+        }
+
         return new MpegAudioTrack(trackInfo, stream);
     }
+
+    /**
+     * @return Cache that keeps the audio of played tracks, null to always stream them
+     */
+    protected AudioDiskCache getAudioCache() {
+        return null;
+    }
+
+    protected String getCacheKey() {
+        return getSourceManager().getSourceName() + ":" + this.trackInfo.identifier;
+    }
 }
@@ -0,0 +1,224 @@
+package org.ferrymehdi.plugin;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Search result playlist that only holds the first page of results up front. Later pages are fetched when they are
+ * asked for, optionally with the page after the last requested one being prefetched in the background.
+ * <p>
+ * Each page is fetched at most once, concurrent requests for the same page share the fetch. {@link #getTracks()}
+ * returns the tracks of all pages that were loaded so far.
+ */
+public class PagedSearchPlaylist implements AudioPlaylist {
+    private final String name;
+    private final PageLoader loader;
+    private final Executor prefetchExecutor;
+    private final Map<Integer, CompletableFuture<List<AudioTrack>>> pages = new ConcurrentHashMap<>();
+
+    // The page cursor: the highest page that is known to have results, or -1 while the end has not been reached.
+    private volatile int lastPage = -1;
+
+    /**
+     * @param name
+     *         Name of the playlist
+     * @param firstPage
+     *         The already loaded first page
+     * @param loader
+     *         Loads any other page, returns an empty list past the last page
+     * @param prefetchExecutor
+     *         Executor to prefetch the next page on, null to only fetch pages when they are requested
+     */
+    public PagedSearchPlaylist(String name, List<AudioTrack> firstPage, PageLoader loader, Executor prefetchExecutor) {
+        this.name = name;
+        this.loader = loader;
+        this.prefetchExecutor = prefetchExecutor;
+
+        pages.put(1, CompletableFuture.completedFuture(List.copyOf(firstPage)));
+
+        if (firstPage.isEmpty()) {
+            lastPage = 0;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<AudioTrack> getTracks() {
+        final List<AudioTrack> tracks = new ArrayList<>();
+
+        for (int page = 1; ; page++) {
+            final CompletableFuture<List<AudioTrack>> future = pages.get(page);
+
+            if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+                break;
+            }
+
+            final List<AudioTrack> pageTracks = future.join();
+
+            if (pageTracks.isEmpty()) {
+                break;
+            }
+
+            tracks.addAll(pageTracks);
+        }
+
+        return Collections.unmodifiableList(tracks);
+    }
+
+    @Override
+    public AudioTrack getSelectedTrack() {
+        return null;
+    }
+
+    @Override
+    public boolean isSearchResult() {
+        return true;
+    }
+
+    /**
+     * @return False if a page came back empty, meaning there are no more results to fetch
+     */
+    public boolean hasMorePages() {
+        return lastPage < 0;
+    }
+
+    /**
+     * @return The amount of pages that have been fetched, or are being fetched right now
+     */
+    public int getRequestedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns the tracks on a page, fetching it if it was not loaded yet.
+     *
+     * @param page
+     *         The page number, starting at 1
+     * @return The tracks on the page, empty if the page is past the end of the results
+     * @throws IOException
+     *         If fetching the page failed, the page will be fetched again on the next call
+     */
+    public List<AudioTrack> getPage(int page) throws IOException {
+        if (page < 1) {
+            throw new IllegalArgumentException("Page numbers start at 1");
+        }
+
+        final int last = lastPage;
+
+        if (last >= 0 && page > last) {
+            return Collections.emptyList();
+        }
+
+        List<AudioTrack> tracks = null;
+
+        while (tracks == null) {
+            final CompletableFuture<List<AudioTrack>> created = new CompletableFuture<>();
+            final CompletableFuture<List<AudioTrack>> existing = pages.putIfAbsent(page, created);
+
+            if (existing == null) {
+                load(page, created);
+            }
+
+            try {
+                tracks = await(existing == null ? created : existing);
+            } catch (CancellationException ignored) {
+                // The prefetch of this page was rejected by the executor, the page is loaded here instead.
+            }
+        }
+
+        if (!tracks.isEmpty()) {
+            prefetch(page + 1);
+        }
+
+        return tracks;
+    }
+
+    private void prefetch(int page) {
+        if (prefetchExecutor == null || !hasMorePages() || pages.containsKey(page)) {
+            return;
+        }
+
+        final CompletableFuture<List<AudioTrack>> created = new CompletableFuture<>();
+
+        if (pages.putIfAbsent(page, created) == null) {
+            try {
+                prefetchExecutor.execute(() -> load(page, created));
+            } catch (RejectedExecutionException e) {
+                // For example after shutdown. Whoever waits for the page already loads it on its own.
+                pages.remove(page, created);
+                created.cancel(false);
+            }
+        }
+    }
+
+    private void load(int page, CompletableFuture<List<AudioTrack>> target) {
+        try {
+            final List<AudioTrack> tracks = List.copyOf(loader.loadPage(page));
+
+            if (tracks.isEmpty()) {
+                markLastPage(page - 1);
+            }
+
+            target.complete(tracks);
+        } catch (Throwable e) {
+            // Forget the failed fetch so the page can be requested again.
+            pages.remove(page, target);
+            target.completeExceptionally(e);
+        }
+    }
+
+    private synchronized void markLastPage(int page) {
+        if (lastPage < 0 || page < lastPage) {
+            lastPage = page;
+        }
+    }
+
+    private List<AudioTrack> await(CompletableFuture<List<AudioTrack>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading search page");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException("Failed to load search page", cause);
+        }
+    }
+
+    /**
+     * Fetches a single page of search results.
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+        /**
+         * @param page
+         *         The page number, starting at 1
+         * @return The tracks on the page, empty if there are no more results
+         */
+        List<AudioTrack> loadPage(int page) throws IOException;
+    }
+}
@@ -0,0 +1,50 @@
+package org.ferrymehdi.plugin.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * File helpers of the caches that keep their entries in a directory.
+ */
+public final class CacheFiles {
+    private static final Logger log = LoggerFactory.getLogger(CacheFiles.class);
+
+    private CacheFiles() {
+    }
+
+    /**
+     * @return A file name for the key, the hex SHA-1 hash of it followed by the extension
+     */
+    public static String fileName(String key, String extension) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder(digest.length * 2 + extension.length());
+
+            for (final byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return name.append(extension).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+
+    /**
+     * Deletes a file if it exists, failures are only logged.
+     */
+    public static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Could not delete {}", path, e);
+        }
+    }
+}
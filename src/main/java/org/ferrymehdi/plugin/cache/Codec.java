@@ -0,0 +1,14 @@
+package org.ferrymehdi.plugin.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary encoding of cached values, see {@link Codecs} for the ones used by the sources.
+ */
+public interface Codec<T> {
+    void write(DataOutput output, T value) throws IOException;
+
+    T read(DataInput input) throws IOException;
+}
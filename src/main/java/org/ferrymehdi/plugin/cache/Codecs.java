@@ -0,0 +1,150 @@
+package org.ferrymehdi.plugin.cache;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Codecs for the values sources keep in a {@link SharedCache}. Strings are written as their length followed by their
+ * UTF-8 bytes, {@link DataOutput#writeUTF} can not hold more than 64 KB.
+ */
+public final class Codecs {
+    public static final Codec<String> STRING = new Codec<>() {
+        @Override
+        public void write(DataOutput output, String value) throws IOException {
+            writeString(output, value);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+            return readString(input);
+        }
+    };
+
+    public static final Codec<byte[]> BYTES = new Codec<>() {
+        @Override
+        public void write(DataOutput output, byte[] value) throws IOException {
+            output.writeInt(value.length);
+            output.write(value);
+        }
+
+        @Override
+        public byte[] read(DataInput input) throws IOException {
+            final byte[] value = new byte[input.readInt()];
+            input.readFully(value);
+            return value;
+        }
+    };
+
+    /**
+     * Every field except the stream flag, cached tracks are never streams.
+     */
+    public static final Codec<AudioTrackInfo> TRACK_INFO = new Codec<>() {
+        @Override
+        public void write(DataOutput output, AudioTrackInfo info) throws IOException {
+            writeString(output, info.identifier);
+            writeNullableString(output, info.title);
+            writeNullableString(output, info.author);
+            output.writeLong(info.length);
+            writeNullableString(output, info.uri);
+            writeNullableString(output, info.artworkUrl);
+            writeNullableString(output, info.isrc);
+        }
+
+        @Override
+        public AudioTrackInfo read(DataInput input) throws IOException {
+            final String identifier = readString(input);
+            final String title = readNullableString(input);
+            final String author = readNullableString(input);
+            final long length = input.readLong();
+            final String uri = readNullableString(input);
+            final String artworkUrl = readNullableString(input);
+            final String isrc = readNullableString(input);
+
+            return new AudioTrackInfo(title, author, length, identifier, false, uri, artworkUrl, isrc);
+        }
+    };
+
+    private Codecs() {
+    }
+
+    /**
+     * @param factory
+     *         Creates a track of the source from its decoded info
+     */
+    public static Codec<AudioTrack> track(Function<AudioTrackInfo, AudioTrack> factory) {
+        return new Codec<>() {
+            @Override
+            public void write(DataOutput output, AudioTrack track) throws IOException {
+                TRACK_INFO.write(output, track.getInfo());
+            }
+
+            @Override
+            public AudioTrack read(DataInput input) throws IOException {
+                return factory.apply(TRACK_INFO.read(input));
+            }
+        };
+    }
+
+    public static <T> Codec<List<T>> listOf(Codec<T> codec) {
+        return new Codec<>() {
+            @Override
+            public void write(DataOutput output, List<T> values) throws IOException {
+                output.writeInt(values.size());
+
+                for (final T value : values) {
+                    codec.write(output, value);
+                }
+            }
+
+            @Override
+            public List<T> read(DataInput input) throws IOException {
+                final int size = input.readInt();
+                final List<T> values = new ArrayList<>(size);
+
+                for (int i = 0; i < size; i++) {
+                    values.add(codec.read(input));
+                }
+
+                return values;
+            }
+        };
+    }
+
+    static void writeString(DataOutput output, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input) throws IOException {
+        final int length = input.readInt();
+
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeNullableString(DataOutput output, String value) throws IOException {
+        output.writeBoolean(value != null);
+
+        if (value != null) {
+            writeString(output, value);
+        }
+    }
+
+    private static String readNullableString(DataInput input) throws IOException {
+        return input.readBoolean() ? readString(input) : null;
+    }
+}
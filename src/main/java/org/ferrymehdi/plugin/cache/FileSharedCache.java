@@ -0,0 +1,277 @@
+package org.ferrymehdi.plugin.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SharedCache} that keeps every value in its own file, meant for a volume shared by several nodes.
+ * <p>
+ * A file holds the expiry time, the key and the value. Files are written under a temporary name and then moved in
+ * place, so other nodes never read a partial value. Expiry uses the wall clock, as it is compared across machines.
+ * Expired files are deleted when read, and by a sweep over the directory that runs during {@link #put} at most once
+ * per sweep interval. The sweep also deletes the oldest files while the directory is over its size budget. A sweep
+ * runs early once this node alone has written enough to exceed the budget, writes of other nodes are only seen by
+ * the next sweep.
+ */
+public class FileSharedCache implements SharedCache {
+    private static final Logger log = LoggerFactory.getLogger(FileSharedCache.class);
+
+    private static final int MAGIC = 0x46534832; // FSH2
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final String EXTENSION = ".fshc";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int maxValueBytes;
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    // Size of the directory at the last sweep plus what this node wrote since.
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    /**
+     * @param directory
+     *         Directory the values are stored in, created if missing. Holds up to 1 GiB.
+     */
+    public FileSharedCache(Path directory) throws IOException {
+        this(directory, 4 * 1024 * 1024);
+    }
+
+    /**
+     * @param maxValueBytes
+     *         Values larger than this are not stored
+     */
+    public FileSharedCache(Path directory, int maxValueBytes) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES, maxValueBytes);
+    }
+
+    /**
+     * @param maxBytes
+     *         Total size budget of all files in the directory
+     * @param maxValueBytes
+     *         Values larger than this are not stored
+     */
+    public FileSharedCache(Path directory, long maxBytes, int maxValueBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxValueBytes = maxValueBytes;
+
+        Files.createDirectories(directory);
+        purgeExpired();
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        final Path path = directory.resolve(CacheFiles.fileName(key, EXTENSION));
+        final byte[] data;
+
+        try {
+            data = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+
+        if (data.length < HEADER_SIZE || input.readInt() != MAGIC) {
+            log.warn("Dropping unreadable shared cache entry {}", path);
+            CacheFiles.deleteQuietly(path);
+            return null;
+        }
+
+        if (input.readLong() < System.currentTimeMillis()) {
+            CacheFiles.deleteQuietly(path);
+            return null;
+        }
+
+        if (!key.equals(Codecs.readString(input))) {
+            // Hash collision, the file belongs to another key.
+            return null;
+        }
+
+        final byte[] value = new byte[input.readInt()];
+        input.readFully(value);
+        return value;
+    }
+
+    @Override
+    public void put(String key, byte[] value, Duration ttl) throws IOException {
+        if (value.length > maxValueBytes) {
+            return;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + key.length() + 8 + value.length);
+        final DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(MAGIC);
+        output.writeLong(System.currentTimeMillis() + ttl.toMillis());
+        Codecs.writeString(output, key);
+        output.writeInt(value.length);
+        output.write(value);
+
+        final String name = CacheFiles.fileName(key, EXTENSION);
+        final Path temp = directory.resolve(name + "." + UUID.randomUUID() + TEMP_EXTENSION);
+
+        try {
+            Files.write(temp, bytes.toByteArray());
+            moveInPlace(temp, directory.resolve(name));
+        } finally {
+            CacheFiles.deleteQuietly(temp);
+        }
+
+        estimatedBytes.addAndGet(bytes.size());
+        sweepIfDue();
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(directory.resolve(CacheFiles.fileName(key, EXTENSION)));
+    }
+
+    /**
+     * Deletes expired entries, and temporary files that were left behind by writers which crashed. If the directory is
+     * still over its size budget, the least recently written entries are deleted until it is at 90% of it.
+     *
+     * @return How many files were deleted
+     */
+    public int purgeExpired() throws IOException {
+        final long now = System.currentTimeMillis();
+        final List<StoredFile> kept = new ArrayList<>();
+        long totalBytes = 0;
+        int deleted = 0;
+
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+
+                if (name.endsWith(TEMP_EXTENSION) ? isAbandoned(path, now) : name.endsWith(EXTENSION) && isExpired(path, now)) {
+                    CacheFiles.deleteQuietly(path);
+                    deleted++;
+                } else if (name.endsWith(EXTENSION)) {
+                    final StoredFile file = StoredFile.of(path);
+
+                    if (file != null) {
+                        kept.add(file);
+                        totalBytes += file.size;
+                    }
+                }
+            }
+        }
+
+        if (totalBytes > maxBytes) {
+            // Evicts down to 90% of the budget, so the next few writes do not trigger another sweep right away.
+            final long target = maxBytes / 10 * 9;
+            kept.sort(Comparator.comparingLong((StoredFile file) -> file.modified));
+
+            for (final StoredFile file : kept) {
+                if (totalBytes <= target) {
+                    break;
+                }
+
+                CacheFiles.deleteQuietly(file.path);
+                totalBytes -= file.size;
+                deleted++;
+            }
+        }
+
+        estimatedBytes.set(totalBytes);
+        lastSweep.set(now);
+        return deleted;
+    }
+
+    /**
+     * @return Size of the directory at the last sweep, plus what this node wrote since
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    private void sweepIfDue() {
+        final long last = lastSweep.get();
+        final long now = System.currentTimeMillis();
+        final boolean due = now - last >= SWEEP_INTERVAL_MS || estimatedBytes.get() > maxBytes;
+
+        if (!due || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+
+        try {
+            purgeExpired();
+        } catch (IOException e) {
+            log.warn("Failed to sweep shared cache directory {}", directory, e);
+        }
+    }
+
+    private static boolean isExpired(Path path, long now) {
+        try (final InputStream stream = Files.newInputStream(path)) {
+            final DataInputStream input = new DataInputStream(stream);
+            return input.readInt() != MAGIC || input.readLong() < now;
+        } catch (IOException e) {
+            // Possibly deleted by another node in the meantime.
+            return false;
+        }
+    }
+
+    private static boolean isAbandoned(Path path, long now) {
+        try {
+            // Another node may still be writing it.
+            return now - Files.getLastModifiedTime(path).toMillis() > SWEEP_INTERVAL_MS;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void moveInPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Some network file systems only support plain renames.
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class StoredFile {
+        private final Path path;
+        private final long size;
+        private final long modified;
+
+        private StoredFile(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        private static StoredFile of(Path path) {
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new StoredFile(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                // Possibly deleted by another node in the meantime.
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.ferrymehdi.plugin.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process {@link SharedCache}, for sharing resolutions between the sources of a single node. Entries expire after
+ * their TTL, and the least recently used ones are evicted when the total size exceeds the budget.
+ */
+public class InMemorySharedCache implements SharedCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param maxBytes
+     *         Total size budget of all values
+     */
+    public InMemorySharedCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized byte[] get(String key) {
+        final Entry entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            remove(key);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    @Override
+    public synchronized void put(String key, byte[] value, Duration ttl) {
+        if (value.length > maxBytes) {
+            return;
+        }
+
+        remove(key);
+        entries.put(key, new Entry(value, System.nanoTime() + ttl.toNanos()));
+        totalBytes += value.length;
+
+        final Iterator<Entry> iterator = entries.values().iterator();
+
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().value.length;
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        final Entry removed = entries.remove(key);
+
+        if (removed != null) {
+            totalBytes -= removed.value.length;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final long expiresAt;
+
+        private Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.ferrymehdi.plugin.cache;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Byte store consulted by sources before network work, so resolutions can be shared between the sources of one
+ * process or, with a shared backend, between several nodes. Values are encoded by a {@link Codec}, see
+ * {@link SharedStageCache}.
+ * <p>
+ * Implementations must be thread safe. Values returned by {@link #get(String)} must not be modified.
+ */
+public interface SharedCache {
+    /**
+     * @return The stored value, or null if there is none or it expired
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * @param ttl
+     *         How long the value may be returned for
+     */
+    void put(String key, byte[] value, Duration ttl) throws IOException;
+
+    void remove(String key) throws IOException;
+}
@@ -0,0 +1,156 @@
+package org.ferrymehdi.plugin.cache;
+
+import org.ferrymehdi.plugin.pipeline.StageCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Typed view of a {@link SharedCache} for one kind of value, usable as the cache of a pipeline or a stage.
+ * <p>
+ * Keys are prefixed with a namespace, values are encoded with a codec behind a format version, so nodes running an
+ * older encoding treat the entries of newer ones as misses. The backend is looked up on every access, it can be
+ * changed or removed at any time. Errors of the backend are logged and count as misses, a cache never fails a load.
+ */
+public class SharedStageCache<K, V> implements StageCache<K, V> {
+    private static final Logger log = LoggerFactory.getLogger(SharedStageCache.class);
+    // 2: strings are written as length and UTF-8 bytes instead of modified UTF-8
+    private static final int FORMAT_VERSION = 2;
+
+    private final Supplier<SharedCache> backend;
+    private final String namespace;
+    private final Function<K, String> keys;
+    private final Codec<V> codec;
+    private volatile Duration ttl;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * @param backend
+     *         Provides the current backend, null disables the cache
+     * @param namespace
+     *         Prefix of all keys, for example {@code pornhub:video}
+     * @param keys
+     *         Turns a key into a string that is unique within the namespace
+     * @param ttl
+     *         How long stored values are used
+     */
+    public SharedStageCache(Supplier<SharedCache> backend, String namespace, Function<K, String> keys, Codec<V> codec, Duration ttl) {
+        this.backend = backend;
+        this.namespace = namespace;
+        this.keys = keys;
+        this.codec = codec;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public V get(K key) {
+        final SharedCache cache = backend.get();
+
+        if (cache == null) {
+            return null;
+        }
+
+        final String cacheKey = cacheKey(key);
+
+        try {
+            final byte[] data = cache.get(cacheKey);
+
+            if (data == null || data.length == 0 || data[0] != FORMAT_VERSION) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+            final V value = codec.read(input);
+            hits.incrementAndGet();
+            return value;
+        } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+            log.warn("Failed to read {} from the shared cache", cacheKey, e);
+            removeQuietly(cache, cacheKey);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        final SharedCache cache = backend.get();
+
+        if (cache == null) {
+            return;
+        }
+
+        final String cacheKey = cacheKey(key);
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeByte(FORMAT_VERSION);
+            codec.write(output, value);
+            cache.put(cacheKey, bytes.toByteArray(), ttl);
+        } catch (IOException | RuntimeException e) {
+            errors.incrementAndGet();
+            log.warn("Failed to store {} in the shared cache", cacheKey, e);
+        }
+    }
+
+    /**
+     * Drops a value that turned out to be unusable, for example a media url the CDN no longer accepts.
+     */
+    public void remove(K key) {
+        final SharedCache cache = backend.get();
+
+        if (cache != null) {
+            removeQuietly(cache, cacheKey(key));
+        }
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl
+     *         How long values stored from now on are used
+     */
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    private String cacheKey(K key) {
+        return namespace + ":" + keys.apply(key);
+    }
+
+    private void removeQuietly(SharedCache cache, String cacheKey) {
+        try {
+            cache.remove(cacheKey);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Failed to remove {} from the shared cache", cacheKey, e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.ferrymehdi.plugin.http;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps resolved addresses for a while, so lookups done during warm-up are not repeated inside user-facing requests.
+ * When a lookup fails, the last known addresses of the host are used instead.
+ * <p>
+ * Hosts that were not asked for within three TTLs are forgotten, and so are the least recently used ones once more
+ * than the maximum amount of hosts are known. CDN nodes come and go, they are not refreshed forever.
+ */
+public class CachingDnsResolver implements DnsResolver {
+    private static final Logger log = LoggerFactory.getLogger(CachingDnsResolver.class);
+    private static final int DEFAULT_MAX_HOSTS = 256;
+    private static final int IDLE_TTLS = 3;
+
+    private final ConcurrentMap<String, Resolved> cache = new ConcurrentHashMap<>();
+    private final DnsResolver delegate;
+    private final long ttlNanos;
+    private final int maxHosts;
+
+    public CachingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param delegate
+     *         Resolver that does the actual lookups
+     * @param ttl
+     *         How long resolved addresses are used before they are looked up again
+     */
+    public CachingDnsResolver(DnsResolver delegate, long ttl, TimeUnit unit) {
+        this(delegate, ttl, unit, DEFAULT_MAX_HOSTS);
+    }
+
+    /**
+     * @param delegate
+     *         Resolver that does the actual lookups
+     * @param ttl
+     *         How long resolved addresses are used before they are looked up again
+     * @param maxHosts
+     *         How many hosts to keep addresses of at most
+     */
+    public CachingDnsResolver(DnsResolver delegate, long ttl, TimeUnit unit, int maxHosts) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxHosts = maxHosts;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        final long now = System.nanoTime();
+        final Resolved cached = cache.get(host);
+
+        if (cached != null) {
+            cached.lastUsed = now;
+
+            if (now - cached.resolvedAt < ttlNanos) {
+                return cached.addresses.clone();
+            }
+        }
+
+        return lookup(host, cached).clone();
+    }
+
+    /**
+     * Looks up every host that is still in use again, keeping the previous addresses of hosts that fail.
+     */
+    public void refresh() {
+        final long now = System.nanoTime();
+
+        for (final Map.Entry<String, Resolved> entry : cache.entrySet()) {
+            if (isIdle(entry.getValue(), now)) {
+                cache.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+
+            try {
+                lookup(entry.getKey(), entry.getValue());
+            } catch (UnknownHostException e) {
+                log.debug("Could not refresh addresses of {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    public int getHostCount() {
+        return cache.size();
+    }
+
+    private InetAddress[] lookup(String host, Resolved previous) throws UnknownHostException {
+        try {
+            final InetAddress[] addresses = delegate.resolve(host);
+            final Resolved resolved = new Resolved(addresses, previous != null ? previous.lastUsed : System.nanoTime());
+
+            if (cache.put(host, resolved) == null && cache.size() > maxHosts) {
+                trim();
+            }
+
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (previous != null) {
+                log.debug("Lookup of {} failed, using previous addresses", host, e);
+                return previous.addresses;
+            }
+
+            throw e;
+        }
+    }
+
+    private void trim() {
+        final long now = System.nanoTime();
+        cache.entrySet().removeIf((entry) -> isIdle(entry.getValue(), now));
+
+        while (cache.size() > maxHosts) {
+            Map.Entry<String, Resolved> oldest = null;
+
+            for (final Map.Entry<String, Resolved> entry : cache.entrySet()) {
+                if (oldest == null || entry.getValue().lastUsed - oldest.getValue().lastUsed < 0) {
+                    oldest = entry;
+                }
+            }
+
+            if (oldest == null) {
+                return;
+            }
+
+            cache.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private boolean isIdle(Resolved resolved, long now) {
+        return now - resolved.lastUsed >= IDLE_TTLS * ttlNanos;
+    }
+
+    private static final class Resolved {
+        private final InetAddress[] addresses;
+        private final long resolvedAt = System.nanoTime();
+        private volatile long lastUsed;
+
+        private Resolved(InetAddress[] addresses, long lastUsed) {
+            this.addresses = addresses;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.http.HttpContextFilter;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.util.List;
+
+/**
+ * Runs several filters on one http interface manager, which only accepts a single filter.
+ * Every filter sees every callback, a retry is requested if any of them asks for one. If a filter rejects a request,
+ * the filters before it see it as a failed request.
+ */
+public class CompositeHttpContextFilter implements HttpContextFilter {
+    private final List<HttpContextFilter> filters;
+
+    public CompositeHttpContextFilter(List<HttpContextFilter> filters) {
+        this.filters = List.copyOf(filters);
+    }
+
+    @Override
+    public void onContextOpen(HttpClientContext context) {
+        for (final HttpContextFilter filter : filters) {
+            filter.onContextOpen(context);
+        }
+    }
+
+    @Override
+    public void onContextClose(HttpClientContext context) {
+        for (final HttpContextFilter filter : filters) {
+            filter.onContextClose(context);
+        }
+    }
+
+    @Override
+    public void onRequest(HttpClientContext context, HttpUriRequest request, boolean isRepetition) {
+        for (int i = 0; i < filters.size(); i++) {
+            try {
+                filters.get(i).onRequest(context, request, isRepetition);
+            } catch (RuntimeException e) {
+                // The request is not sent and the http interface only reports errors of sent requests, so the
+                // filters that already saw the request are told here.
+                for (int j = 0; j < i; j++) {
+                    filters.get(j).onRequestException(context, request, e);
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean onRequestResponse(HttpClientContext context, HttpUriRequest request, HttpResponse response) {
+        boolean retry = false;
+
+        for (final HttpContextFilter filter : filters) {
+            retry |= filter.onRequestResponse(context, request, response);
+        }
+
+        return retry;
+    }
+
+    @Override
+    public boolean onRequestException(HttpClientContext context, HttpUriRequest request, Throwable error) {
+        boolean retry = false;
+
+        for (final HttpContextFilter filter : filters) {
+            retry |= filter.onRequestException(context, request, error);
+        }
+
+        return retry;
+    }
+}
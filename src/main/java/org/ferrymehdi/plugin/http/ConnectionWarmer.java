@@ -0,0 +1,176 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the hosts a source talks to and opens keep-alive connections to them ahead of user-facing requests, by
+ * sending a {@code HEAD} request to one url per host. Passes can be repeated periodically to keep addresses fresh and
+ * connections open.
+ */
+public class ConnectionWarmer {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionWarmer.class);
+    private static final int MAX_URLS = 32;
+
+    private final Supplier<HttpInterface> httpInterfaces;
+    private final Supplier<? extends Executor> executor;
+    private final CachingDnsResolver dnsResolver;
+    private final Set<String> urls = new LinkedHashSet<>();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private CompletableFuture<Void> currentPass;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param httpInterfaces
+     *         Provides the http interface for the thread a url is warmed up on
+     * @param executor
+     *         Provides the executor urls are warmed up on
+     * @param dnsResolver
+     *         The resolver used by the http client, primed with the hosts of the urls
+     */
+    public ConnectionWarmer(Supplier<HttpInterface> httpInterfaces, Supplier<? extends Executor> executor, CachingDnsResolver dnsResolver) {
+        this.httpInterfaces = httpInterfaces;
+        this.executor = executor;
+        this.dnsResolver = dnsResolver;
+    }
+
+    /**
+     * Adds a url to warm up in later passes. Only the scheme, host and port are used.
+     *
+     * @return Whether no url of the same origin was known yet
+     */
+    public synchronized boolean addUrl(String url) {
+        final String origin = originOf(url);
+        return origin != null && urls.size() < MAX_URLS && urls.add(origin);
+    }
+
+    public void addUrls(Collection<String> urls) {
+        for (final String url : urls) {
+            addUrl(url);
+        }
+    }
+
+    /**
+     * Warms up every known url, unless a pass is already running. Failures are counted but do not fail the pass.
+     *
+     * @return A future that completes once the pass is done
+     */
+    public synchronized CompletableFuture<Void> warmUp() {
+        if (currentPass != null && !currentPass.isDone()) {
+            return currentPass;
+        }
+
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (final String url : urls) {
+            futures.add(CompletableFuture.runAsync(() -> warm(url), executor.get()));
+        }
+
+        currentPass = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+        currentPass.whenComplete((result, error) -> ready.complete(null));
+        return currentPass;
+    }
+
+    /**
+     * @return A future that completes once the first pass is done
+     */
+    public CompletableFuture<Void> getReadyFuture() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /**
+     * Refreshes the addresses of known hosts and runs a pass periodically, does nothing if already started.
+     */
+    public synchronized void startRefresh(long interval, TimeUnit unit) {
+        if (scheduler != null || interval <= 0) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ferry-warmup"));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                dnsResolver.refresh();
+                warmUp();
+            } catch (RuntimeException e) {
+                log.warn("Periodic warm-up failed", e);
+            }
+        }, interval, interval, unit);
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return How many urls were warmed up successfully, over all passes
+     */
+    public long getWarmedCount() {
+        return warmed.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public synchronized List<String> getUrls() {
+        return new ArrayList<>(urls);
+    }
+
+    private void warm(String url) {
+        try {
+            dnsResolver.resolve(URI.create(url).getHost());
+
+            try (final CloseableHttpResponse response = httpInterfaces.get().execute(new HttpHead(url))) {
+                // Any response means the connection is established, consuming it returns it to the pool.
+                EntityUtils.consume(response.getEntity());
+            }
+
+            warmed.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            log.debug("Failed to warm up {}", url, e);
+        }
+    }
+
+    private static String originOf(String url) {
+        try {
+            final URI uri = URI.create(url);
+
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+
+            return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : "") + "/";
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+
+/**
+ * Thrown when an operation, such as loading an item, did not complete within its deadline.
+ */
+public class DeadlineExceededException extends FriendlyException {
+    private final String operation;
+    private final long budgetMillis;
+
+    public DeadlineExceededException(String operation, long budgetMillis, Throwable cause) {
+        super("Took too long to " + operation + ", gave up after " + budgetMillis + "ms", Severity.SUSPICIOUS, cause);
+        this.operation = operation;
+        this.budgetMillis = budgetMillis;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+}
@@ -0,0 +1,53 @@
+package org.ferrymehdi.plugin.http;
+
+import java.util.List;
+
+/**
+ * The body of a successfully fetched page, along with the cookies the server set while serving it.
+ */
+public final class FetchedPage {
+    private final String url;
+    private final String body;
+    private final List<String> cookies;
+    private final SessionPool.Session session;
+
+    public FetchedPage(String url, String body, List<String> cookies) {
+        this(url, body, cookies, null);
+    }
+
+    public FetchedPage(String url, String body, List<String> cookies, SessionPool.Session session) {
+        this.url = url;
+        this.body = body;
+        this.cookies = List.copyOf(cookies);
+        this.session = session;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return The {@code name=value} part of every {@code Set-Cookie} header of the response
+     */
+    public List<String> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * @return The cookies joined for use in a {@code Cookie} header
+     */
+    public String getCookieHeader() {
+        return String.join("; ", cookies);
+    }
+
+    /**
+     * @return The session the page was fetched in, follow-up requests should use it too. Null if none.
+     */
+    public SessionPool.Session getSession() {
+        return session;
+    }
+}
@@ -0,0 +1,111 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.http.HttpContextFilter;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes every request of an http interface through a {@link HostRateLimiter}. The permit is held until the
+ * response headers arrive, reading the body does not count towards the concurrency of the host.
+ * <p>
+ * Only errors of the origin or the connection to it lower the limit of a host. Requests that were aborted, or whose
+ * {@link RequestScope} was cancelled or ran out of time, just return their permit.
+ */
+public class HostLimitingFilter implements HttpContextFilter {
+    private static final String PERMIT_ATTRIBUTE = "ferry-host-permit";
+
+    private final HostRateLimiter limiter;
+
+    public HostLimitingFilter(HostRateLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void onContextOpen(HttpClientContext context) {
+        // Not used
+    }
+
+    @Override
+    public void onContextClose(HttpClientContext context) {
+        // Not used
+    }
+
+    @Override
+    public void onRequest(HttpClientContext context, HttpUriRequest request, boolean isRepetition) {
+        final String host = request.getURI().getHost();
+
+        if (host == null) {
+            return;
+        }
+
+        final RequestScope scope = RequestScope.current();
+        final long maxWaitNanos = scope != null ? scope.getRemainingNanos() : Long.MAX_VALUE;
+
+        context.setAttribute(PERMIT_ATTRIBUTE, limiter.acquire(host, maxWaitNanos));
+    }
+
+    @Override
+    public boolean onRequestResponse(HttpClientContext context, HttpUriRequest request, HttpResponse response) {
+        final HostRateLimiter.Permit permit = takePermit(context);
+
+        if (permit != null) {
+            permit.complete(response.getStatusLine().getStatusCode(), parseRetryAfter(response));
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean onRequestException(HttpClientContext context, HttpUriRequest request, Throwable error) {
+        final HostRateLimiter.Permit permit = takePermit(context);
+
+        if (permit != null) {
+            if (request.isAborted() || isScopeCancelled()) {
+                permit.release();
+            } else {
+                permit.fail();
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isScopeCancelled() {
+        final RequestScope scope = RequestScope.current();
+        return scope != null && scope.isCancelled();
+    }
+
+    private HostRateLimiter.Permit takePermit(HttpClientContext context) {
+        return (HostRateLimiter.Permit) context.removeAttribute(PERMIT_ATTRIBUTE);
+    }
+
+    private long parseRetryAfter(HttpResponse response) {
+        final Header header = response.getFirstHeader("Retry-After");
+
+        if (header == null || header.getValue() == null) {
+            return 0;
+        }
+
+        final String value = header.getValue().trim();
+
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException ignored) {
+            // Not delta-seconds, should be an HTTP date then
+        }
+
+        final Date date = DateUtils.parseDate(value);
+
+        if (date == null) {
+            return 0;
+        }
+
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, date.getTime() - System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,573 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity.SUSPICIOUS;
+
+/**
+ * Per-host admission control for outgoing requests.
+ * <p>
+ * Every host gets an adaptive concurrency limit (additive increase while responses are fast and healthy,
+ * multiplicative decrease on errors, slow responses and throttling), an optional token bucket and a backoff
+ * window that is opened by 429/503 responses and honours {@code Retry-After}. Requests that cannot be admitted
+ * wait in a queue until their deadline instead of piling onto an origin that is already pushing back.
+ * <p>
+ * Hosts that have been idle for a while and are not held back by a lowered limit or a backoff are forgotten, so the
+ * many per-video CDN hosts do not pile up.
+ */
+public class HostRateLimiter {
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double LATENCY_SMOOTHING = 0.1;
+    private static final long CANCEL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long IDLE_EVICTION_NANOS = TimeUnit.MINUTES.toNanos(10);
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final Map<String, BucketConfig> bucketConfigs = new ConcurrentHashMap<>();
+    private final Set<String> configuredHosts = ConcurrentHashMap.newKeySet();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+    private volatile int initialLimit = 16;
+    private volatile int minLimit = 1;
+    private volatile int maxLimit = 64;
+    private volatile long queueTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private volatile long slowResponseNanos = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * Configures a token bucket for a host and all of its subdomains.
+     *
+     * @param hostSuffix
+     *         The host to rate limit, for example {@code pornhub.com}
+     * @param permitsPerSecond
+     *         The sustained request rate, zero or less disables the bucket
+     * @param burst
+     *         The amount of requests that may be sent at once after a quiet period
+     */
+    public void configureHost(String hostSuffix, double permitsPerSecond, int burst) {
+        final String key = hostSuffix.toLowerCase(Locale.ROOT);
+
+        configuredHosts.add(key);
+        applyBucket(key, permitsPerSecond, burst);
+    }
+
+    /**
+     * Same as {@link #configureHost(String, double, int)}, unless the host was configured before. Meant for defaults
+     * of sources, which must not override what was configured by the user, also when disabled.
+     *
+     * @return Whether the configuration was applied
+     */
+    public boolean configureHostIfAbsent(String hostSuffix, double permitsPerSecond, int burst) {
+        final String key = hostSuffix.toLowerCase(Locale.ROOT);
+
+        if (!configuredHosts.add(key)) {
+            return false;
+        }
+
+        applyBucket(key, permitsPerSecond, burst);
+        return true;
+    }
+
+    private void applyBucket(String key, double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            bucketConfigs.remove(key);
+        } else {
+            bucketConfigs.put(key, new BucketConfig(permitsPerSecond, Math.max(1, burst)));
+        }
+
+        // Already tracked hosts pick up the new bucket on their next request.
+        hosts.values().forEach(HostState::refreshBucket);
+    }
+
+    /**
+     * @param initial
+     *         The concurrency limit a host starts with
+     * @param min
+     *         The limit will never be decreased below this
+     * @param max
+     *         The limit will never be increased above this
+     */
+    public void setConcurrencyLimits(int initial, int min, int max) {
+        if (min < 1 || max < min || initial < min || initial > max) {
+            throw new IllegalArgumentException("Invalid concurrency limits " + initial + "/" + min + "/" + max);
+        }
+
+        this.initialLimit = initial;
+        this.minLimit = min;
+        this.maxLimit = max;
+    }
+
+    /**
+     * @param timeout
+     *         How long a request may wait for admission before it is rejected
+     * @param unit
+     *         The unit of the timeout
+     */
+    public void setQueueTimeout(long timeout, TimeUnit unit) {
+        this.queueTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @param threshold
+     *         Responses slower than this (and well above the usual latency of the host) shrink the limit
+     * @param unit
+     *         The unit of the threshold
+     */
+    public void setSlowResponseThreshold(long threshold, TimeUnit unit) {
+        this.slowResponseNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Waits until a request to the given host may be sent.
+     *
+     * @param host
+     *         The host the request is going to
+     * @param maxWaitNanos
+     *         Upper bound for the wait on top of the configured queue timeout
+     * @return The permit, which must be completed with one of its methods once the response or error arrived
+     * @throws FriendlyException
+     *         If the request could not be admitted in time
+     */
+    public Permit acquire(String host, long maxWaitNanos) {
+        final String key = host.toLowerCase(Locale.ROOT);
+        sweepIdleHosts();
+
+        while (true) {
+            final Permit permit = hosts.computeIfAbsent(key, HostState::new).acquire(Math.min(queueTimeoutNanos, maxWaitNanos));
+
+            // Null if the state was evicted right before, the next one is created in its place.
+            if (permit != null) {
+                return permit;
+            }
+        }
+    }
+
+    /**
+     * @return A snapshot of the limiter state of every host that was contacted recently
+     */
+    public Map<String, HostStats> getStats() {
+        return hosts.values().stream()
+            .map(HostState::snapshot)
+            .collect(Collectors.toMap(HostStats::getHost, Function.identity()));
+    }
+
+    private void sweepIdleHosts() {
+        final long now = System.nanoTime();
+        final long due = nextSweep.get();
+
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            return;
+        }
+
+        hosts.values().removeIf((state) -> state.evictIfIdle(now));
+    }
+
+    private BucketConfig findBucketConfig(String host) {
+        String candidate = host;
+
+        while (true) {
+            final BucketConfig config = bucketConfigs.get(candidate);
+
+            if (config != null) {
+                return config;
+            }
+
+            final int dot = candidate.indexOf('.');
+
+            if (dot < 0) {
+                return null;
+            }
+
+            candidate = candidate.substring(dot + 1);
+        }
+    }
+
+    private static final class BucketConfig {
+        private final double permitsPerNano;
+        private final int burst;
+
+        private BucketConfig(double permitsPerSecond, int burst) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+        }
+    }
+
+    private final class HostState {
+        private final String host;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        private double limit = initialLimit;
+        private int inFlight;
+        private int queued;
+        private BucketConfig bucket;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long backoffUntil;
+        private long backoffStep = MIN_BACKOFF_NANOS;
+        private double smoothedLatency = -1;
+        private long lastActive = System.nanoTime();
+        private boolean evicted;
+
+        private long admitted;
+        private long rejected;
+        private long throttled;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        private HostState(String host) {
+            this.host = host;
+            this.bucket = findBucketConfig(host);
+            this.tokens = bucket == null ? 0 : bucket.burst;
+        }
+
+        private void refreshBucket() {
+            lock.lock();
+
+            try {
+                bucket = findBucketConfig(host);
+                tokens = bucket == null ? 0 : Math.min(tokens, bucket.burst);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Permit acquire(long timeoutNanos) {
+            final long start = System.nanoTime();
+            final long deadline = start + timeoutNanos;
+            final RequestScope scope = RequestScope.current();
+
+            lock.lock();
+
+            if (evicted) {
+                lock.unlock();
+                return null;
+            }
+
+            queued++;
+
+            try {
+                while (true) {
+                    if (scope != null) {
+                        scope.checkCancelled();
+                    }
+
+                    final long now = System.nanoTime();
+                    final long waitNanos = admissionDelay(now);
+
+                    if (waitNanos == 0) {
+                        lastActive = now;
+                        inFlight++;
+                        admitted++;
+
+                        final long waited = now - start;
+                        totalWaitNanos += waited;
+                        maxWaitNanos = Math.max(maxWaitNanos, waited);
+                        return new Permit(this, now);
+                    }
+
+                    final long remaining = deadline - now;
+
+                    if (remaining <= 0) {
+                        if (scope != null) {
+                            // The wait was bounded by the deadline of the scope rather than the queue timeout.
+                            scope.checkCancelled();
+                        }
+
+                        rejected++;
+                        throw new FriendlyException(
+                            "Too many requests are queued for " + host + ", try again later",
+                            SUSPICIOUS,
+                            null
+                        );
+                    }
+
+                    long timeout = Math.min(waitNanos, remaining);
+
+                    if (scope != null) {
+                        // Cancelling a scope does not signal the condition, so waits within one wake up periodically.
+                        timeout = Math.min(timeout, CANCEL_CHECK_NANOS);
+                    }
+
+                    changed.awaitNanos(timeout);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FriendlyException("Interrupted while waiting for " + host, SUSPICIOUS, e);
+            } finally {
+                queued--;
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return Zero if a request may go out right now (taking a token), otherwise how long to wait at most
+         * before checking again.
+         */
+        private long admissionDelay(long now) {
+            if (now < backoffUntil) {
+                return backoffUntil - now;
+            }
+
+            if (inFlight >= (int) limit) {
+                // Woken up by a release, the timeout only guards against missed signals.
+                return TimeUnit.MILLISECONDS.toNanos(100);
+            }
+
+            if (bucket == null) {
+                return 0;
+            }
+
+            tokens = Math.min(bucket.burst, tokens + (now - lastRefill) * bucket.permitsPerNano);
+            lastRefill = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+
+            return Math.max(1, (long) ((1 - tokens) / bucket.permitsPerNano));
+        }
+
+        private void complete(long startedAt, int statusCode, long retryAfterNanos) {
+            final long now = System.nanoTime();
+            final long latency = now - startedAt;
+
+            lock.lock();
+
+            try {
+                inFlight--;
+                lastActive = System.nanoTime();
+
+                if (statusCode == 429 || statusCode == 503) {
+                    throttled++;
+                    decrease();
+
+                    final long backoff = retryAfterNanos > 0 ? Math.min(retryAfterNanos, MAX_BACKOFF_NANOS) : backoffStep;
+                    backoffUntil = Math.max(backoffUntil, now + backoff);
+                    backoffStep = Math.min(backoffStep * 2, MAX_BACKOFF_NANOS);
+                } else if (statusCode >= 500) {
+                    decrease();
+                } else if (isSlow(latency)) {
+                    decrease();
+                } else {
+                    backoffStep = MIN_BACKOFF_NANOS;
+                    // Additive increase: roughly one extra slot per limit's worth of good responses.
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+
+                smoothedLatency = smoothedLatency < 0
+                    ? latency
+                    : smoothedLatency + LATENCY_SMOOTHING * (latency - smoothedLatency);
+
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail() {
+            lock.lock();
+
+            try {
+                inFlight--;
+                lastActive = System.nanoTime();
+                decrease();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            lock.lock();
+
+            try {
+                inFlight--;
+                lastActive = System.nanoTime();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return Whether the host was idle long enough and is back to its defaults, it is then marked as evicted
+         */
+        private boolean evictIfIdle(long now) {
+            lock.lock();
+
+            try {
+                if (inFlight > 0 || queued > 0 || limit < initialLimit || now < backoffUntil || now - lastActive < IDLE_EVICTION_NANOS) {
+                    return false;
+                }
+
+                evicted = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isSlow(long latency) {
+            return latency > slowResponseNanos && smoothedLatency > 0 && latency > smoothedLatency * 2;
+        }
+
+        private void decrease() {
+            limit = Math.max(minLimit, limit / 2);
+        }
+
+        private HostStats snapshot() {
+            lock.lock();
+
+            try {
+                return new HostStats(
+                    host,
+                    (int) limit,
+                    inFlight,
+                    queued,
+                    admitted,
+                    rejected,
+                    throttled,
+                    totalWaitNanos,
+                    maxWaitNanos,
+                    Math.max(0, backoffUntil - System.nanoTime())
+                );
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * An admitted request. Exactly one of {@link #complete(int, long)} and {@link #fail()} has to be called.
+     */
+    public static final class Permit {
+        private final HostState state;
+        private final long startedAt;
+
+        private Permit(HostState state, long startedAt) {
+            this.state = state;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * @param statusCode
+         *         The status code of the response
+         * @param retryAfterNanos
+         *         The delay requested by the {@code Retry-After} header, zero if it was not present
+         */
+        public void complete(int statusCode, long retryAfterNanos) {
+            state.complete(startedAt, statusCode, retryAfterNanos);
+        }
+
+        /**
+         * Marks the request as failed without a response, for example because of a connection error.
+         */
+        public void fail() {
+            state.fail();
+        }
+
+        /**
+         * Returns the permit without judging the host, for requests that were aborted on our side, for example
+         * because the track was stopped or a deadline was spent.
+         */
+        public void release() {
+            state.release();
+        }
+    }
+
+    /**
+     * Point in time view of a single host.
+     */
+    public static final class HostStats {
+        private final String host;
+        private final int concurrencyLimit;
+        private final int inFlight;
+        private final int queueDepth;
+        private final long admitted;
+        private final long rejected;
+        private final long throttled;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long backoffRemainingNanos;
+
+        private HostStats(String host, int concurrencyLimit, int inFlight, int queueDepth, long admitted, long rejected,
+                          long throttled, long totalWaitNanos, long maxWaitNanos, long backoffRemainingNanos) {
+            this.host = host;
+            this.concurrencyLimit = concurrencyLimit;
+            this.inFlight = inFlight;
+            this.queueDepth = queueDepth;
+            this.admitted = admitted;
+            this.rejected = rejected;
+            this.throttled = throttled;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.backoffRemainingNanos = backoffRemainingNanos;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getConcurrencyLimit() {
+            return concurrencyLimit;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getAdmitted() {
+            return admitted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getThrottled() {
+            return throttled;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getAverageWaitNanos() {
+            return admitted == 0 ? 0 : totalWaitNanos / admitted;
+        }
+
+        public long getBackoffRemainingNanos() {
+            return backoffRemainingNanos;
+        }
+
+        @Override
+        public String toString() {
+            return host + " limit=" + concurrencyLimit + " inFlight=" + inFlight + " queued=" + queueDepth +
+                " admitted=" + admitted + " rejected=" + rejected + " throttled=" + throttled +
+                " avgWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getAverageWaitNanos()) +
+                " maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.ferrymehdi.plugin.http;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a second, alternate request when the first one has not responded within a delay derived from recently
+ * observed latencies. Whichever request responds first is used, the other one is aborted.
+ * <p>
+ * The delay follows the latency of primary requests only. A primary that is aborted because its hedge won counts
+ * with the time it had been running, so slow primaries still push the delay up.
+ * <p>
+ * Extra load is capped by a budget: every request earns a fraction of a hedge, and a hedge is only sent if a whole
+ * one has been earned.
+ */
+public class RequestHedger {
+    private static final int SAMPLE_COUNT = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final double MAX_BUDGET = 10;
+
+    private final long[] samples = new long[SAMPLE_COUNT];
+    private int sampleIndex;
+    private int sampleSize;
+    private long cachedDelay = -1;
+    private double budget;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+    private final AtomicLong hedgesSkipped = new AtomicLong();
+
+    private final double percentile;
+    private final double maxHedgeRatio;
+    private final long minDelayNanos;
+    private final long defaultDelayNanos;
+
+    public RequestHedger() {
+        this(0.95, 0.1, 50, 1000);
+    }
+
+    /**
+     * @param percentile
+     *         The latency percentile after which a hedge is sent, for example 0.95
+     * @param maxHedgeRatio
+     *         Maximum share of requests that may be hedged, for example 0.1 for at most 10% extra requests
+     * @param minDelayMs
+     *         Never hedge sooner than this
+     * @param defaultDelayMs
+     *         The delay used until enough latencies have been observed
+     */
+    public RequestHedger(double percentile, double maxHedgeRatio, long minDelayMs, long defaultDelayMs) {
+        if (percentile <= 0 || percentile > 1 || maxHedgeRatio < 0 || maxHedgeRatio > 1) {
+            throw new IllegalArgumentException("Invalid hedging parameters " + percentile + "/" + maxHedgeRatio);
+        }
+
+        this.percentile = percentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+        this.defaultDelayNanos = TimeUnit.MILLISECONDS.toNanos(defaultDelayMs);
+    }
+
+    /**
+     * Runs the primary attempt, and the alternate one as well if the primary is slow.
+     *
+     * @param executor
+     *         The executor the attempts run on
+     * @param sender
+     *         Sends the request of an attempt, on the thread the attempt runs on
+     * @return The result of whichever attempt succeeded first
+     * @throws IOException
+     *         The error of the primary attempt if all attempts failed
+     */
+    public <T> T execute(Executor executor, Sender sender, Attempt<T> primary, Attempt<T> alternate) throws IOException {
+        requests.incrementAndGet();
+        earnBudget();
+
+        final Race<T> race = new Race<>();
+        final Running first = race.start(executor, sender, primary, false);
+        Running second = null;
+
+        try {
+            try {
+                return race.result.get(currentDelay(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (takeBudget()) {
+                    hedges.incrementAndGet();
+                    second = race.start(executor, sender, alternate, true);
+                } else {
+                    hedgesSkipped.incrementAndGet();
+                }
+            }
+
+            return race.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException("Request failed", cause);
+        } finally {
+            final long primaryElapsed = first.abort();
+
+            if (primaryElapsed >= 0) {
+                recordLatency(first, primaryElapsed);
+            }
+
+            if (second != null) {
+                second.abort();
+            }
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return How many hedged requests responded before the request they were hedging
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * @return How many times a hedge was due but the budget was used up
+     */
+    public long getHedgesSkipped() {
+        return hedgesSkipped.get();
+    }
+
+    public synchronized long getCurrentDelayNanos() {
+        return currentDelay();
+    }
+
+    private synchronized void earnBudget() {
+        budget = Math.min(MAX_BUDGET, budget + maxHedgeRatio);
+    }
+
+    private synchronized boolean takeBudget() {
+        if (budget < 1) {
+            return false;
+        }
+
+        budget -= 1;
+        return true;
+    }
+
+    private void recordLatency(Running primary, long nanos) {
+        if (primary.sampled.compareAndSet(false, true)) {
+            addSample(nanos);
+        }
+    }
+
+    private synchronized void addSample(long nanos) {
+        samples[sampleIndex] = nanos;
+        sampleIndex = (sampleIndex + 1) % SAMPLE_COUNT;
+        sampleSize = Math.min(SAMPLE_COUNT, sampleSize + 1);
+
+        // Sorting the window on every sample is wasteful, the delay only has to follow trends.
+        if (sampleIndex % 16 == 0) {
+            cachedDelay = -1;
+        }
+    }
+
+    private synchronized long currentDelay() {
+        if (sampleSize < MIN_SAMPLES) {
+            return defaultDelayNanos;
+        }
+
+        if (cachedDelay < 0) {
+            final long[] sorted = Arrays.copyOf(samples, sampleSize);
+            Arrays.sort(sorted);
+            cachedDelay = Math.max(minDelayNanos, sorted[(int) Math.min(sampleSize - 1, Math.ceil(percentile * sampleSize) - 1)]);
+        }
+
+        return cachedDelay;
+    }
+
+    /**
+     * Sends requests, for example through the http interface of the current thread.
+     */
+    @FunctionalInterface
+    public interface Sender {
+        CloseableHttpResponse send(HttpUriRequest request) throws IOException;
+    }
+
+    /**
+     * A single request and how to turn its response into a result.
+     */
+    public interface Attempt<T> {
+        HttpUriRequest createRequest();
+
+        T handle(CloseableHttpResponse response) throws IOException;
+    }
+
+    private final class Race<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile Throwable primaryError;
+
+        private Running start(Executor executor, Sender sender, Attempt<T> attempt, boolean hedge) {
+            final Running running = new Running(attempt.createRequest());
+            pending.incrementAndGet();
+
+            executor.execute(RequestScope.propagate(() -> {
+                running.startedAt = System.nanoTime();
+
+                try (final CloseableHttpResponse response = sender.send(running.request)) {
+                    if (!hedge) {
+                        // Also when the hedge already won, the sample must not depend on the outcome of the race.
+                        recordLatency(running, System.nanoTime() - running.startedAt);
+                    }
+
+                    final T value = attempt.handle(response);
+
+                    // Done before the result is published, so the caller does not abort a request that is being
+                    // closed normally and would still return its connection to the pool.
+                    running.finish();
+
+                    if (result.complete(value) && hedge) {
+                        hedgesWon.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    running.finish();
+
+                    if (!hedge) {
+                        primaryError = e;
+                    }
+
+                    if (pending.decrementAndGet() == 0) {
+                        result.completeExceptionally(primaryError != null ? primaryError : e);
+                    }
+
+                    return;
+                }
+
+                pending.decrementAndGet();
+            }));
+
+            return running;
+        }
+    }
+
+    private static final class Running {
+        private final HttpUriRequest request;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private volatile long startedAt;
+
+        private Running(HttpUriRequest request) {
+            this.request = request;
+        }
+
+        private boolean finish() {
+            return finished.compareAndSet(false, true);
+        }
+
+        /**
+         * Aborts the request unless its response was already handled.
+         *
+         * @return How long the aborted request had been running, -1 if it was not aborted or had not started yet
+         */
+        private long abort() {
+            if (!finish()) {
+                return -1;
+            }
+
+            request.abort();
+
+            final long started = startedAt;
+            return started != 0 ? System.nanoTime() - started : -1;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.DaemonThreadFactory;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the requests made on behalf of one piece of work, such as playing a track, so they can all be aborted at
+ * once when that work is no longer needed. Blocking socket reads do not react to thread interrupts, aborting the
+ * request closes its connection and releases the waiting thread right away.
+ * <p>
+ * A scope is bound to the threads doing the work, {@link RequestScopeFilter} registers every request sent from such
+ * a thread. Work handed to executors keeps the scope when wrapped with {@link #propagate(Callable)}.
+ * <p>
+ * A scope created with {@link #withDeadline(String, long, TimeUnit)} ends on its own once its budget is spent. It is
+ * nested in the scope that was current when it was created: its requests belong to both, and it ends when its parent
+ * ends.
+ */
+public final class RequestScope {
+    private static final ThreadLocal<RequestScope> CURRENT = new ThreadLocal<>();
+    private static final ScheduledThreadPoolExecutor DEADLINES = createDeadlineExecutor();
+
+    private final Set<HttpUriRequest> requests = ConcurrentHashMap.newKeySet();
+    private final RequestScope parent;
+    private final String operation;
+    private final long budgetNanos;
+    private final long deadline;
+    private final ScheduledFuture<?> expiry;
+    private volatile boolean cancelled;
+
+    public RequestScope() {
+        this(null, null, 0);
+    }
+
+    private RequestScope(RequestScope parent, String operation, long budgetNanos) {
+        this.parent = parent;
+        this.operation = operation;
+        this.budgetNanos = budgetNanos;
+        this.deadline = System.nanoTime() + budgetNanos;
+        this.expiry = budgetNanos > 0 ? DEADLINES.schedule(() -> {
+            cancel();
+        }, budgetNanos, TimeUnit.NANOSECONDS) : null;
+    }
+
+    /**
+     * Creates a scope whose requests are aborted once the budget is spent, nested in the current scope. Must be
+     * {@link #close() closed} once the operation is done.
+     *
+     * @param operation
+     *         Name of the operation, used in the error once the budget is spent
+     */
+    public static RequestScope withDeadline(String operation, long budget, TimeUnit unit) {
+        return new RequestScope(current(), operation, Math.max(1, unit.toNanos(budget)));
+    }
+
+    /**
+     * @return The scope bound to the calling thread, null if there is none
+     */
+    public static RequestScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the scope of the calling thread to a task, for running it on another thread.
+     */
+    public static <T> Callable<T> propagate(Callable<T> task) {
+        final RequestScope scope = current();
+
+        if (scope == null) {
+            return task;
+        }
+
+        return () -> {
+            try (final Binding ignored = scope.bind()) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * @see #propagate(Callable)
+     */
+    public static Runnable propagate(Runnable task) {
+        final RequestScope scope = current();
+
+        if (scope == null) {
+            return task;
+        }
+
+        return () -> {
+            try (final Binding ignored = scope.bind()) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Makes this the scope of the calling thread until the returned binding is closed.
+     */
+    public Binding bind() {
+        final RequestScope previous = CURRENT.get();
+        CURRENT.set(this);
+
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * Stops the deadline timer, the scope can still be cancelled.
+     */
+    public void close() {
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+    }
+
+    /**
+     * @return Time left until the earliest deadline of this scope and its parents, {@link Long#MAX_VALUE} if there is
+     * no deadline
+     */
+    public long getRemainingNanos() {
+        final long now = System.nanoTime();
+        long remaining = Long.MAX_VALUE;
+
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.budgetNanos > 0) {
+                remaining = Math.min(remaining, scope.deadline - now);
+            }
+        }
+
+        return remaining;
+    }
+
+    /**
+     * @return Whether the deadline of this scope itself has passed
+     */
+    public boolean isExpired() {
+        return budgetNanos > 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return The error for the earliest spent deadline of this scope and its parents, null if none was spent
+     */
+    public DeadlineExceededException deadlineExceeded(Throwable cause) {
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.isExpired()) {
+                return new DeadlineExceededException(scope.operation, TimeUnit.NANOSECONDS.toMillis(scope.budgetNanos), cause);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Aborts all requests of the scope, requests sent afterwards fail right away.
+     *
+     * @return How many requests were aborted, -1 if the scope was already cancelled
+     */
+    public int cancel() {
+        if (cancelled) {
+            return -1;
+        }
+
+        cancelled = true;
+        int aborted = 0;
+
+        for (final HttpUriRequest request : requests) {
+            if (!request.isAborted()) {
+                request.abort();
+                aborted++;
+            }
+        }
+
+        requests.clear();
+        return aborted;
+    }
+
+    /**
+     * @return Whether this scope or one of its parents was cancelled or spent its budget
+     */
+    public boolean isCancelled() {
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.cancelled || scope.isExpired()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @throws DeadlineExceededException
+     *         If this scope or one of its parents spent its budget
+     * @throws CancelledException
+     *         If this scope or one of its parents was cancelled
+     */
+    public void checkCancelled() {
+        final DeadlineExceededException exceeded = deadlineExceeded(null);
+
+        if (exceeded != null) {
+            throw exceeded;
+        }
+
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            if (scope.cancelled) {
+                throw new CancelledException();
+            }
+        }
+    }
+
+    /**
+     * @return How many requests are registered with this scope right now
+     */
+    int getRequestCount() {
+        return requests.size();
+    }
+
+    void register(HttpUriRequest request) {
+        checkCancelled();
+
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            scope.requests.add(request);
+        }
+
+        // Cancelled while registering, the request may have been missed.
+        if (isCancelled()) {
+            unregister(request);
+            request.abort();
+            checkCancelled();
+        }
+    }
+
+    void unregister(HttpUriRequest request) {
+        for (RequestScope scope = this; scope != null; scope = scope.parent) {
+            scope.requests.remove(request);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createDeadlineExecutor() {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("ferry-deadline"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    @FunctionalInterface
+    public interface Binding extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Thrown when a request is about to be sent or admitted within a cancelled scope.
+     */
+    public static class CancelledException extends IllegalStateException {
+        public CancelledException() {
+            super("The request was cancelled");
+        }
+    }
+}
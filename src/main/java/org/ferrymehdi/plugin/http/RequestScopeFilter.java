@@ -0,0 +1,144 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.http.HttpContextFilter;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Registers every request with the {@link RequestScope} of the sending thread while it is sent. Meant to run before
+ * any other filter, so a cancelled scope does not wait for a permit of the host limiter.
+ * <p>
+ * Requests are unregistered once their response arrived or they failed. Responses whose body is streamed, where
+ * reading can block for as long as the stream is played, are marked with {@link #keepRegisteredUntilClose}: their
+ * requests stay registered until the context is closed.
+ * <p>
+ * Within a scope that has a deadline, the connect, connection pool and socket timeouts of each request are lowered to
+ * the remaining budget.
+ */
+public class RequestScopeFilter implements HttpContextFilter {
+    private static final String STREAMED_REQUESTS = "ferry-streamed-requests";
+
+    private final Supplier<RequestConfig> defaultConfig;
+
+    /**
+     * @param defaultConfig
+     *         Provides the request config of the http client, the base for lowered timeouts. If it provides null,
+     *         timeouts are only lowered for requests with their own config.
+     */
+    public RequestScopeFilter(Supplier<RequestConfig> defaultConfig) {
+        this.defaultConfig = defaultConfig;
+    }
+
+    @Override
+    public void onContextOpen(HttpClientContext context) {
+        // Not used
+    }
+
+    @Override
+    public void onContextClose(HttpClientContext context) {
+        final Object streamed = context.removeAttribute(STREAMED_REQUESTS);
+
+        if (streamed instanceof StreamedRequests) {
+            ((StreamedRequests) streamed).unregisterAll();
+        }
+    }
+
+    /**
+     * Keeps the requests sent through the context from now on registered with their scope until the context is
+     * closed, so a cancelled scope also aborts reading their body.
+     */
+    public static void keepRegisteredUntilClose(HttpClientContext context) {
+        if (!(context.getAttribute(STREAMED_REQUESTS) instanceof StreamedRequests)) {
+            context.setAttribute(STREAMED_REQUESTS, new StreamedRequests());
+        }
+    }
+
+    @Override
+    public void onRequest(HttpClientContext context, HttpUriRequest request, boolean isRepetition) {
+        final RequestScope scope = RequestScope.current();
+
+        if (scope == null) {
+            return;
+        }
+
+        scope.register(request);
+
+        final long remaining = scope.getRemainingNanos();
+
+        if (remaining != Long.MAX_VALUE && request instanceof HttpRequestBase) {
+            limitTimeouts((HttpRequestBase) request, remaining);
+        }
+    }
+
+    @Override
+    public boolean onRequestResponse(HttpClientContext context, HttpUriRequest request, HttpResponse response) {
+        final RequestScope scope = RequestScope.current();
+
+        if (scope == null) {
+            return false;
+        }
+
+        final Object streamed = context.getAttribute(STREAMED_REQUESTS);
+
+        if (streamed instanceof StreamedRequests) {
+            ((StreamedRequests) streamed).add(scope, request);
+        } else {
+            scope.unregister(request);
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean onRequestException(HttpClientContext context, HttpUriRequest request, Throwable error) {
+        final RequestScope scope = RequestScope.current();
+
+        if (scope != null) {
+            scope.unregister(request);
+        }
+
+        return false;
+    }
+
+    private void limitTimeouts(HttpRequestBase request, long remainingNanos) {
+        final RequestConfig config = request.getConfig() != null ? request.getConfig() : defaultConfig.get();
+
+        if (config == null) {
+            return;
+        }
+
+        final int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+
+        request.setConfig(RequestConfig.copy(config)
+            .setConnectTimeout(limit(config.getConnectTimeout(), budget))
+            .setConnectionRequestTimeout(limit(config.getConnectionRequestTimeout(), budget))
+            .setSocketTimeout(limit(config.getSocketTimeout(), budget))
+            .build());
+    }
+
+    private static int limit(int timeout, int budget) {
+        // Zero and negative timeouts mean infinite or system default.
+        return timeout > 0 ? Math.min(timeout, budget) : budget;
+    }
+
+    private static final class StreamedRequests {
+        private final Map<HttpUriRequest, RequestScope> requests = new HashMap<>();
+
+        private synchronized void add(RequestScope scope, HttpUriRequest request) {
+            requests.put(request, scope);
+        }
+
+        private synchronized void unregisterAll() {
+            requests.forEach((request, scope) -> scope.unregister(request));
+            requests.clear();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.ClientCookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of browser-like sessions, each one a cookie store that is seeded and warmed up once and then
+ * reused by many resolutions. Sessions are handed out in rotation, and replaced in the background once they are
+ * older than the maximum age or were invalidated.
+ * <p>
+ * Sessions may be used by several threads at once, the cookie stores are thread safe.
+ */
+public class SessionPool {
+    private static final Logger log = LoggerFactory.getLogger(SessionPool.class);
+
+    private final AtomicReferenceArray<Session> slots;
+    private final AtomicInteger next = new AtomicInteger();
+    private final long maxAgeNanos;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong warmupFailures = new AtomicLong();
+
+    public SessionPool() {
+        this(4, 30, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param size
+     *         Amount of sessions to rotate between
+     * @param maxAge
+     *         Age after which a session is replaced
+     */
+    public SessionPool(int size, long maxAge, TimeUnit unit) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+
+        this.slots = new AtomicReferenceArray<>(size);
+        this.maxAgeNanos = unit.toNanos(maxAge);
+    }
+
+    /**
+     * Returns the next session in rotation. An empty slot is filled with a seeded session right away, which is then
+     * warmed up in the background. An expired session is still returned while its replacement is being warmed up.
+     *
+     * @param initializer
+     *         Seeds and warms up new sessions
+     * @param executor
+     *         Executor that warms up sessions
+     * @param httpInterfaces
+     *         Provides the http interface for the thread a session is warmed up on
+     */
+    public Session acquire(Initializer initializer, Executor executor, Supplier<HttpInterface> httpInterfaces) {
+        acquired.incrementAndGet();
+
+        final int size = slots.length();
+        final int start = Math.floorMod(next.getAndIncrement(), size);
+
+        for (int i = 0; i < size; i++) {
+            final int slot = (start + i) % size;
+            final Session session = slots.get(slot);
+
+            if (session == null) {
+                return fill(slot, initializer, executor, httpInterfaces);
+            }
+
+            if (session.invalid) {
+                replace(slot, session, initializer, executor, httpInterfaces);
+                continue;
+            }
+
+            if (System.nanoTime() - session.createdAt > maxAgeNanos) {
+                replace(slot, session, initializer, executor, httpInterfaces);
+            }
+
+            return session;
+        }
+
+        // Every session was invalidated, don't wait for their replacements.
+        return create(initializer);
+    }
+
+    /**
+     * Fills every empty slot and warms the sessions up.
+     *
+     * @return A future that completes once all sessions are warmed up
+     */
+    public CompletableFuture<Void> warmUp(Initializer initializer, Executor executor, Supplier<HttpInterface> httpInterfaces) {
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[slots.length()];
+
+        for (int slot = 0; slot < slots.length(); slot++) {
+            if (slots.get(slot) != null) {
+                futures[slot] = CompletableFuture.completedFuture(null);
+                continue;
+            }
+
+            final Session session = create(initializer);
+
+            if (slots.compareAndSet(slot, null, session)) {
+                futures[slot] = warm(session, initializer, executor, httpInterfaces);
+            } else {
+                futures[slot] = CompletableFuture.completedFuture(null);
+            }
+        }
+
+        return CompletableFuture.allOf(futures);
+    }
+
+    public int getSize() {
+        return slots.length();
+    }
+
+    public long getAcquireCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return How many sessions were created, including replacements
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return How many expired or invalidated sessions were replaced
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getWarmupFailureCount() {
+        return warmupFailures.get();
+    }
+
+    private Session fill(int slot, Initializer initializer, Executor executor, Supplier<HttpInterface> httpInterfaces) {
+        final Session session = create(initializer);
+
+        if (slots.compareAndSet(slot, null, session)) {
+            warm(session, initializer, executor, httpInterfaces);
+            return session;
+        }
+
+        // Another thread filled the slot in the meantime.
+        final Session current = slots.get(slot);
+        return current != null ? current : session;
+    }
+
+    private void replace(int slot, Session old, Initializer initializer, Executor executor, Supplier<HttpInterface> httpInterfaces) {
+        if (!old.replacing.compareAndSet(false, true)) {
+            return;
+        }
+
+        refreshes.incrementAndGet();
+        final Session replacement = create(initializer);
+
+        warm(replacement, initializer, executor, httpInterfaces).whenComplete((result, error) ->
+            slots.compareAndSet(slot, old, replacement)
+        );
+    }
+
+    private Session create(Initializer initializer) {
+        created.incrementAndGet();
+
+        final Session session = new Session();
+        initializer.seed(session.cookies);
+        return session;
+    }
+
+    private CompletableFuture<Void> warm(Session session, Initializer initializer, Executor executor, Supplier<HttpInterface> httpInterfaces) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                initializer.warm(session, httpInterfaces.get());
+            } catch (IOException | RuntimeException e) {
+                // A cold session still carries its seeded cookies, so it remains usable.
+                warmupFailures.incrementAndGet();
+                log.debug("Failed to warm up session", e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Sets up new sessions for a specific origin.
+     */
+    public interface Initializer {
+        /**
+         * Adds the cookies every session starts with, such as consent or age verification. Must not block.
+         */
+        void seed(CookieStore cookies);
+
+        /**
+         * Makes the requests that establish a session, for example loading the front page to receive its session
+         * cookies. Runs in the background.
+         *
+         * @param session
+         *         The session to warm up, requests are sent with {@link Session#execute(HttpInterface, HttpUriRequest)}
+         */
+        void warm(Session session, HttpInterface httpInterface) throws IOException;
+    }
+
+    /**
+     * A cookie store shared by the resolutions it is handed out to.
+     */
+    public static final class Session {
+        private final CookieStore cookies = new BasicCookieStore();
+        private final long createdAt = System.nanoTime();
+        private final AtomicBoolean replacing = new AtomicBoolean();
+        private volatile boolean invalid;
+
+        private Session() {
+        }
+
+        /**
+         * Sends a request with the cookies of this session. The interface gets its own cookie store back once the
+         * request is sent, as thread local interfaces are reused by later requests that must not carry the session.
+         */
+        public CloseableHttpResponse execute(HttpInterface httpInterface, HttpUriRequest request) throws IOException {
+            final HttpClientContext context = httpInterface.getContext();
+            final CookieStore previous = context.getCookieStore();
+            context.setCookieStore(cookies);
+
+            try {
+                return httpInterface.execute(request);
+            } finally {
+                context.setCookieStore(previous);
+            }
+        }
+
+        public CookieStore getCookies() {
+            return cookies;
+        }
+
+        /**
+         * Takes the session out of rotation, for example when the origin answered with an interstitial.
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        /**
+         * Creates a cookie like a browser would have received it from the given host.
+         */
+        public static BasicClientCookie cookie(String host, String name, String value) {
+            final BasicClientCookie cookie = new BasicClientCookie(name, value);
+            cookie.setDomain(host);
+            cookie.setPath("/");
+            cookie.setAttribute(ClientCookie.DOMAIN_ATTR, host);
+            cookie.setAttribute(ClientCookie.PATH_ATTR, "/");
+            return cookie;
+        }
+    }
+}
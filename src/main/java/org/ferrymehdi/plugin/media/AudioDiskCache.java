@@ -0,0 +1,713 @@
+package org.ferrymehdi.plugin.media;
+
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegTrackInfo;
+import org.ferrymehdi.plugin.cache.CacheFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the AAC audio of played MP4 tracks on disk, so repeated plays neither download nor demux the video again.
+ * <p>
+ * Every entry is one file: a header with the decoder configuration, the raw AAC samples, and an index of sample sizes
+ * followed by a trailer. Files are written under a temporary name, synced, and then atomically moved in place, so a
+ * crash never leaves a partial entry behind. Entries are read through memory mapping. When the total size exceeds the
+ * budget, the least recently played entries are deleted.
+ * <p>
+ * Plays that start while an entry is being stored read the samples that were written so far and then follow the
+ * writer, instead of streaming the same video from the CDN again.
+ */
+public class AudioDiskCache {
+    private static final Logger log = LoggerFactory.getLogger(AudioDiskCache.class);
+
+    private static final int MAGIC = 0x46414143; // FAAC
+    private static final int TRAILER_MAGIC = 0x46454E44; // FEND
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 4 + 8 + 8 + 4;
+    // Every AAC frame decodes to this many samples per channel.
+    private static final int SAMPLES_PER_FRAME = 1024;
+    // How long a live entry waits for its next sample before giving up on the play that stores it.
+    private static final long LIVE_SAMPLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final String EXTENSION = ".faac";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Writer> writing = new HashMap<>();
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong liveHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param directory
+     *         Directory the entries are stored in, created if missing. Entries from earlier runs are picked up.
+     * @param maxBytes
+     *         Total size budget of all entries
+     */
+    public AudioDiskCache(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, maxBytes / 4);
+    }
+
+    /**
+     * @param maxEntryBytes
+     *         Tracks with more audio than this are not stored
+     */
+    public AudioDiskCache(Path directory, long maxBytes, long maxEntryBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxBytes, maxEntryBytes);
+
+        Files.createDirectories(directory);
+        loadExisting();
+    }
+
+    /**
+     * @param key
+     *         Key of the track, for example its source name and identifier
+     * @return The stored audio of the track, or the audio stored so far if another play is storing it right now. Null
+     * if it is not cached. Must be closed once played.
+     */
+    public Entry open(String key) {
+        final String name = CacheFiles.fileName(key, EXTENSION);
+        final Writer writer;
+
+        synchronized (this) {
+            writer = writing.get(name);
+
+            if (writer == null && entries.get(name) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+
+        if (writer != null) {
+            final Entry live = writer.openLive();
+
+            if (live != null) {
+                liveHits.incrementAndGet();
+                return live;
+            }
+
+            synchronized (this) {
+                // The write ended in the meantime, it may have completed the entry.
+                if (entries.get(name) == null) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+            }
+        }
+
+        final Path path = directory.resolve(name);
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final Entry entry = new StoredEntry(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            hits.incrementAndGet();
+            touch(path);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Dropping unreadable audio cache entry {}", path, e);
+            remove(name);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Starts storing the audio of a track.
+     *
+     * @return A writer for the samples of the track, null if it is already stored or being stored
+     */
+    public Writer begin(String key, MpegTrackInfo track) {
+        final String name = CacheFiles.fileName(key, EXTENSION);
+
+        final Path temp = directory.resolve(name + "." + UUID.randomUUID() + TEMP_EXTENSION);
+        final Writer writer = new Writer(name, temp, track);
+
+        synchronized (this) {
+            if (entries.containsKey(name) || writing.putIfAbsent(name, writer) != null) {
+                return null;
+            }
+        }
+
+        try {
+            writer.start();
+            return writer;
+        } catch (IOException e) {
+            log.warn("Could not start audio cache entry {}", temp, e);
+            CacheFiles.deleteQuietly(temp);
+
+            synchronized (this) {
+                writing.remove(name);
+            }
+
+            return null;
+        }
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return How many plays started on an entry that was still being stored
+     */
+    public long getLiveHitCount() {
+        return liveHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getStoreCount() {
+        return stores.get();
+    }
+
+    /**
+     * @return How many writes were dropped, for example because playback was stopped or seeked before the end
+     */
+    public long getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void loadExisting() throws IOException {
+        final List<Path> files = new ArrayList<>();
+
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+
+                if (name.endsWith(TEMP_EXTENSION)) {
+                    // Left behind by a crash during a write.
+                    CacheFiles.deleteQuietly(path);
+                } else if (name.endsWith(EXTENSION)) {
+                    files.add(path);
+                }
+            }
+        }
+
+        files.sort(Comparator.comparing(AudioDiskCache::lastModified));
+
+        synchronized (this) {
+            for (final Path path : files) {
+                final long size = Files.size(path);
+                entries.put(path.getFileName().toString(), size);
+                totalBytes += size;
+            }
+
+            evict();
+        }
+    }
+
+    private synchronized void stored(String name, long size) {
+        writing.remove(name);
+
+        final Long previous = entries.put(name, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        stores.incrementAndGet();
+
+        evict();
+    }
+
+    private synchronized void abandoned(String name) {
+        writing.remove(name);
+        abandoned.incrementAndGet();
+    }
+
+    private void remove(String name) {
+        synchronized (this) {
+            final Long size = entries.remove(name);
+
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+
+        CacheFiles.deleteQuietly(directory.resolve(name));
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            evictions.incrementAndGet();
+
+            // Readers that already mapped the file keep playing it, the space is reclaimed once they are done.
+            CacheFiles.deleteQuietly(directory.resolve(eldest.getKey()));
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            // Keeps the eviction order across restarts.
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Could not update access time of {}", path, e);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * The stored audio of one track. Samples are AAC frames, so their timecodes follow from their index and the
+     * sample rate.
+     */
+    public abstract static class Entry implements Closeable {
+        private final MpegTrackInfo track;
+
+        private Entry(MpegTrackInfo track) {
+            this.track = track;
+        }
+
+        /**
+         * @return Track info to create a decoder for the samples with
+         */
+        public MpegTrackInfo getTrack() {
+            return track;
+        }
+
+        /**
+         * @return Duration of the stored audio, 0 while it is not known yet
+         */
+        public abstract long getDurationMs();
+
+        /**
+         * Reads a sample, waiting for it if the entry is still being stored. An entry whose next sample does not show
+         * up within 10 seconds, for example because the play storing it is paused, is treated as abandoned.
+         *
+         * @return A view of the sample, positioned at its start. Null after the last sample, or once the samples of an
+         * {@link #isAbandoned() abandoned} entry run out.
+         */
+        public abstract ByteBuffer readSample(int index) throws InterruptedException;
+
+        /**
+         * @return Whether the entry was dropped while it was being stored, its samples then end before the track does
+         */
+        public abstract boolean isAbandoned();
+
+        /**
+         * @return Index of the sample that plays at the timecode
+         */
+        public int sampleAt(long timecode) {
+            if (track.sampleRate <= 0 || timecode <= 0) {
+                return 0;
+            }
+
+            return (int) Math.min(Integer.MAX_VALUE, timecode * track.sampleRate / (SAMPLES_PER_FRAME * 1000L));
+        }
+
+        /**
+         * @return Timecode at which the sample starts playing
+         */
+        public long timecodeOf(int index) {
+            return track.sampleRate <= 0 ? 0 : index * SAMPLES_PER_FRAME * 1000L / track.sampleRate;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release by default
+        }
+    }
+
+    private static final class StoredEntry extends Entry {
+        private final ByteBuffer buffer;
+        private final int[] offsets;
+        private final int[] sizes;
+        private final long durationMs;
+
+        private StoredEntry(MappedByteBuffer buffer) throws IOException {
+            super(readTrack(buffer));
+            this.buffer = buffer;
+
+            final int trailer = buffer.capacity() - TRAILER_SIZE;
+            final int sampleCount = buffer.getInt(trailer);
+            this.durationMs = buffer.getLong(trailer + 4);
+            final int indexOffset = (int) buffer.getLong(trailer + 12);
+
+            this.offsets = new int[sampleCount];
+            this.sizes = new int[sampleCount];
+
+            int offset = 20 + buffer.getInt(16);
+
+            for (int i = 0; i < sampleCount; i++) {
+                offsets[i] = offset;
+                sizes[i] = buffer.getInt(indexOffset + i * 4);
+                offset += sizes[i];
+            }
+
+            if (offset != indexOffset) {
+                throw new IOException("Audio cache entry index does not match its samples");
+            }
+        }
+
+        private static MpegTrackInfo readTrack(ByteBuffer buffer) throws IOException {
+            if (buffer.capacity() < 20 + TRAILER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not an audio cache entry");
+            }
+
+            if (buffer.getInt(buffer.capacity() - TRAILER_SIZE + 20) != TRAILER_MAGIC) {
+                throw new IOException("Audio cache entry is incomplete");
+            }
+
+            final int sampleRate = buffer.getInt(8);
+            final int channelCount = buffer.getInt(12);
+            final byte[] decoderConfig = new byte[buffer.getInt(16)];
+            buffer.duplicate().position(20).get(decoderConfig);
+
+            return new MpegTrackInfo(1, "soun", "mp4a", channelCount, sampleRate, decoderConfig);
+        }
+
+        @Override
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        @Override
+        public ByteBuffer readSample(int index) {
+            if (index >= sizes.length) {
+                return null;
+            }
+
+            final ByteBuffer view = buffer.duplicate();
+            view.limit(offsets[index] + sizes[index]).position(offsets[index]);
+            return view;
+        }
+
+        @Override
+        public boolean isAbandoned() {
+            return false;
+        }
+    }
+
+    /**
+     * Appends the samples of a track while it plays. Exactly one of {@link #finish(long)} and {@link #abandon()} must
+     * be called, calls after that are ignored.
+     */
+    public final class Writer {
+        private final String name;
+        private final Path temp;
+        private final MpegTrackInfo track;
+        private FileChannel channel;
+        private long[] offsets = new long[1024];
+        private int[] sizes = new int[1024];
+        private long position;
+
+        // Shared with live entries, guarded by this writer.
+        private int sampleCount;
+        private long durationMs;
+        private boolean closed;
+        private boolean completed;
+        private boolean dropped;
+
+        private Writer(String name, Path temp, MpegTrackInfo track) {
+            this.name = name;
+            this.temp = temp;
+            this.track = track;
+        }
+
+        private synchronized void start() throws IOException {
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+            try {
+                final byte[] config = track.decoderConfig != null ? track.decoderConfig : new byte[0];
+                final ByteBuffer header = ByteBuffer.allocate(20 + config.length);
+
+                header.putInt(MAGIC).putInt(VERSION).putInt(track.sampleRate).putInt(track.channelCount).putInt(config.length);
+                header.put(config).flip();
+                write(header);
+            } catch (IOException e) {
+                closed = true;
+                dropped = true;
+                closeChannel();
+                throw e;
+            }
+        }
+
+        /**
+         * @param sample
+         *         A buffer positioned at the start of a complete AAC sample, its remaining bytes are written
+         */
+        public void append(ByteBuffer sample) {
+            if (isClosed()) {
+                return;
+            }
+
+            final int size = sample.remaining();
+
+            if (position + size > maxEntryBytes) {
+                abandon();
+                return;
+            }
+
+            final long offset = position;
+
+            try {
+                write(sample);
+            } catch (IOException e) {
+                log.warn("Failed to write audio cache entry {}", temp, e);
+                abandon();
+                return;
+            }
+
+            synchronized (this) {
+                if (sampleCount == sizes.length) {
+                    offsets = Arrays.copyOf(offsets, sizes.length * 2);
+                    sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                }
+
+                offsets[sampleCount] = offset;
+                sizes[sampleCount] = size;
+                sampleCount++;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Completes the entry and makes it available.
+         *
+         * @param durationMs
+         *         Duration of the stored audio
+         */
+        public void finish(long durationMs) {
+            if (isClosed()) {
+                return;
+            }
+
+            if (sampleCount == 0 || durationMs <= 0) {
+                abandon();
+                return;
+            }
+
+            try {
+                final long indexOffset = position;
+                final ByteBuffer index = ByteBuffer.allocate(sampleCount * 4 + TRAILER_SIZE);
+
+                for (int i = 0; i < sampleCount; i++) {
+                    index.putInt(sizes[i]);
+                }
+
+                index.putInt(sampleCount).putLong(durationMs).putLong(indexOffset).putInt(TRAILER_MAGIC).flip();
+                write(index);
+
+                channel.force(true);
+                channel.close();
+
+                synchronized (this) {
+                    closed = true;
+
+                    // Moved while holding the lock, so live entries never open the temporary file after it is gone.
+                    Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    this.durationMs = durationMs;
+                    completed = true;
+                    notifyAll();
+                }
+
+                stored(name, position);
+            } catch (IOException e) {
+                log.warn("Failed to complete audio cache entry {}", temp, e);
+                abandon();
+            }
+        }
+
+        /**
+         * Drops the entry, for example because playback did not reach the end. Live entries of it end after the
+         * samples written so far.
+         */
+        public void abandon() {
+            final boolean wasClosed;
+
+            synchronized (this) {
+                if (completed || dropped) {
+                    return;
+                }
+
+                // Also reached when completing the entry failed after the channel was closed.
+                wasClosed = closed;
+                closed = true;
+                dropped = true;
+                notifyAll();
+            }
+
+            if (!wasClosed) {
+                closeChannel();
+            }
+
+            // Live entries that already opened the file keep reading it, the space is reclaimed once they are done.
+            CacheFiles.deleteQuietly(temp);
+            abandoned(name);
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private synchronized Entry openLive() {
+            if (closed) {
+                return null;
+            }
+
+            try {
+                return new LiveEntry(FileChannel.open(temp, StandardOpenOption.READ));
+            } catch (IOException e) {
+                log.debug("Could not open audio cache entry {} while it is stored", temp, e);
+                return null;
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Could not close {}", temp, e);
+            }
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        }
+
+        /**
+         * Reads the samples of the entry while they are written, through its own handle of the temporary file.
+         */
+        private final class LiveEntry extends Entry {
+            private final FileChannel reader;
+            private ByteBuffer buffer = ByteBuffer.allocate(2048);
+            private volatile boolean failed;
+
+            private LiveEntry(FileChannel reader) {
+                super(track);
+                this.reader = reader;
+            }
+
+            @Override
+            public long getDurationMs() {
+                synchronized (Writer.this) {
+                    return completed ? durationMs : 0;
+                }
+            }
+
+            @Override
+            public ByteBuffer readSample(int index) throws InterruptedException {
+                final long offset;
+                final int size;
+
+                synchronized (Writer.this) {
+                    final long deadline = System.nanoTime() + LIVE_SAMPLE_TIMEOUT_NANOS;
+
+                    while (index >= sampleCount && !closed) {
+                        final long remaining = deadline - System.nanoTime();
+
+                        if (remaining <= 0) {
+                            log.debug("Audio cache entry {} stalled at sample {}, giving up on following it", temp, index);
+                            failed = true;
+                            return null;
+                        }
+
+                        TimeUnit.NANOSECONDS.timedWait(Writer.this, remaining);
+                    }
+
+                    if (index >= sampleCount) {
+                        return null;
+                    }
+
+                    offset = offsets[index];
+                    size = sizes[index];
+                }
+
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+                }
+
+                buffer.clear().limit(size);
+
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (reader.read(buffer, offset + buffer.position()) < 0) {
+                            throw new EOFException("Audio cache entry ended before sample " + index);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to read audio cache entry {} while it is stored", temp, e);
+                    failed = true;
+                    return null;
+                }
+
+                buffer.flip();
+                return buffer;
+            }
+
+            @Override
+            public boolean isAbandoned() {
+                synchronized (Writer.this) {
+                    return failed || dropped;
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Could not close {}", temp, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.ferrymehdi.plugin.media;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.info.AudioTrackInfoProvider;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Seekable stream over audio that is already in memory, for example a file loaded from a cache.
+ */
+public class ByteArraySeekableInputStream extends SeekableInputStream {
+    private final byte[] data;
+    private int position;
+
+    public ByteArraySeekableInputStream(byte[] data) {
+        super(data.length, 0);
+        this.data = data;
+    }
+
+    @Override
+    public int read() {
+        return position < data.length ? data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        if (position >= data.length) {
+            return -1;
+        }
+
+        final int chunk = Math.min(length, data.length - position);
+        System.arraycopy(data, position, buffer, offset, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public long skip(long n) {
+        final int skipped = (int) Math.max(0, Math.min(n, data.length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return data.length - position;
+    }
+
+    @Override
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    protected void seekHard(long position) {
+        this.position = (int) Math.max(0, Math.min(position, data.length));
+    }
+
+    @Override
+    public boolean canSeekHard() {
+        return true;
+    }
+
+    @Override
+    public List<AudioTrackInfoProvider> getTrackInfoProviders() {
+        return Collections.emptyList();
+    }
+}
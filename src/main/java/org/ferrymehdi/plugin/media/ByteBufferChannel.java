@@ -0,0 +1,44 @@
+package org.ferrymehdi.plugin.media;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Hands a sample that is already in memory to a decoder without copying it first.
+ */
+final class ByteBufferChannel implements ReadableByteChannel {
+    private ByteBuffer source;
+
+    /**
+     * @param source
+     *         Buffer positioned at the start of the sample, reading advances its position
+     */
+    ByteBufferChannel reset(ByteBuffer source) {
+        this.source = source;
+        return this;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) {
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+
+        final int length = Math.min(source.remaining(), destination.remaining());
+        final ByteBuffer chunk = source.duplicate();
+        chunk.limit(chunk.position() + length);
+        destination.put(chunk);
+        source.position(source.position() + length);
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the buffer belongs to the caller
+    }
+}
@@ -0,0 +1,90 @@
+package org.ferrymehdi.plugin.media;
+
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegAacTrackConsumer;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrameBuffer;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plays the AAC samples of an {@link AudioDiskCache} entry, seeking by sample index. Entries that are still being
+ * stored are followed as their samples are written.
+ */
+public class CachedAacAudioTrack extends BaseAudioTrack {
+    private final AudioDiskCache.Entry entry;
+    private int sampleIndex;
+    private volatile boolean cutShort;
+    private volatile long resumeTimecode;
+
+    public CachedAacAudioTrack(AudioTrackInfo trackInfo, AudioDiskCache.Entry entry) {
+        super(trackInfo);
+        this.entry = entry;
+    }
+
+    /**
+     * @return Whether playback stopped before the end of the track because the entry was abandoned while it was being
+     * stored, the rest of the track then has to be streamed
+     */
+    public boolean isCutShort() {
+        return cutShort;
+    }
+
+    /**
+     * @return Timecode of the first sample that was not played when the track was {@link #isCutShort() cut short}
+     */
+    public long getResumeTimecode() {
+        return resumeTimecode;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor localExecutor) throws Exception {
+        final MpegAacTrackConsumer consumer = new MpegAacTrackConsumer(localExecutor.getProcessingContext(), entry.getTrack());
+        consumer.initialise();
+
+        final long durationMs = entry.getDurationMs();
+
+        if (durationMs > 0) {
+            accurateDuration.set(durationMs);
+        }
+
+        try {
+            localExecutor.executeProcessingLoop(
+                () -> provideFrames(consumer, localExecutor.getProcessingContext().frameBuffer),
+                (timecode) -> seekToTimecode(consumer, timecode),
+                false
+            );
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void provideFrames(MpegAacTrackConsumer consumer, AudioFrameBuffer frameBuffer) throws InterruptedException {
+        final ByteBufferChannel channel = new ByteBufferChannel();
+        ByteBuffer sample;
+
+        while ((sample = entry.readSample(sampleIndex)) != null) {
+            consumer.consume(channel.reset(sample), sample.remaining());
+            sampleIndex++;
+        }
+
+        if (entry.isAbandoned()) {
+            resumeTimecode = entry.timecodeOf(sampleIndex);
+            cutShort = true;
+            return;
+        }
+
+        consumer.flush();
+
+        // The track is ended here rather than by the executor, which would also end it when it was cut short.
+        frameBuffer.setTerminateOnEmpty();
+        frameBuffer.waitForTermination();
+    }
+
+    private void seekToTimecode(MpegAacTrackConsumer consumer, long timecode) {
+        cutShort = false;
+        sampleIndex = entry.sampleAt(timecode);
+        consumer.seekPerformed(timecode, entry.timecodeOf(sampleIndex));
+    }
+}
@@ -0,0 +1,191 @@
+package org.ferrymehdi.plugin.media;
+
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegAacTrackConsumer;
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegFileLoader;
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegTrackConsumer;
+import com.sedmelluq.discord.lavaplayer.container.mpeg.MpegTrackInfo;
+import com.sedmelluq.discord.lavaplayer.container.mpeg.reader.MpegFileTrackProvider;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity.SUSPICIOUS;
+
+/**
+ * Plays an MP4 stream like {@link com.sedmelluq.discord.lavaplayer.container.mpeg.MpegAudioTrack} does, and stores
+ * the AAC samples it demuxes in an {@link AudioDiskCache} along the way. The entry is only kept if playback went from
+ * the start to the end without seeking. It is completed as soon as the last sample is demuxed, so plays that follow
+ * the entry while it is stored do not wait for this one to drain its buffer.
+ * <p>
+ * Playback can also start in the middle of the stream, for plays that continue where a cached entry was cut short.
+ * Nothing is stored then.
+ */
+public class RecordingMpegAudioTrack extends BaseAudioTrack {
+    private final SeekableInputStream inputStream;
+    private final AudioDiskCache cache;
+    private final String cacheKey;
+    private final long startTimecode;
+    private volatile boolean reachedEnd;
+
+    public RecordingMpegAudioTrack(AudioTrackInfo trackInfo, SeekableInputStream inputStream, AudioDiskCache cache, String cacheKey) {
+        this(trackInfo, inputStream, cache, cacheKey, 0);
+    }
+
+    /**
+     * @param startTimecode
+     *         Timecode to start playing at, the audio is only stored when this is 0
+     */
+    public RecordingMpegAudioTrack(
+        AudioTrackInfo trackInfo,
+        SeekableInputStream inputStream,
+        AudioDiskCache cache,
+        String cacheKey,
+        long startTimecode
+    ) {
+        super(trackInfo);
+        this.inputStream = inputStream;
+        this.cache = cache;
+        this.cacheKey = cacheKey;
+        this.startTimecode = startTimecode;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor localExecutor) throws Exception {
+        final MpegFileLoader file = new MpegFileLoader(inputStream);
+        file.parseHeaders();
+
+        final MpegTrackInfo track = selectAudioTrack(file);
+
+        if (track == null) {
+            throw new FriendlyException("The audio codec used in the track is not supported.", SUSPICIOUS, null);
+        }
+
+        final AudioDiskCache.Writer writer = startTimecode == 0 ? cache.begin(cacheKey, track) : null;
+        final MpegTrackConsumer decoder = new MpegAacTrackConsumer(localExecutor.getProcessingContext(), track);
+        final MpegTrackConsumer consumer = writer != null ? new RecordingConsumer(decoder, writer) : decoder;
+
+        try {
+            consumer.initialise();
+
+            final MpegFileTrackProvider fileReader = file.loadReader(consumer);
+
+            if (fileReader == null) {
+                throw new FriendlyException("Unknown MP4 format.", SUSPICIOUS, null);
+            }
+
+            accurateDuration.set(fileReader.getDuration());
+
+            if (startTimecode > 0) {
+                // Seeks requested through the executor are still applied after this one.
+                fileReader.seekToTimecode(startTimecode);
+            }
+
+            localExecutor.executeProcessingLoop(() -> {
+                fileReader.provideFrames();
+                reachedEnd = true;
+
+                if (writer != null) {
+                    writer.finish(getDuration());
+                }
+            }, fileReader::seekToTimecode);
+        } finally {
+            consumer.close();
+
+            if (writer != null && !reachedEnd) {
+                writer.abandon();
+            }
+        }
+    }
+
+    private static MpegTrackInfo selectAudioTrack(MpegFileLoader file) {
+        for (final MpegTrackInfo track : file.getTrackList()) {
+            if ("soun".equals(track.handler) && "mp4a".equals(track.codecName)) {
+                return track;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies every sample to the cache before passing it on to the decoder. A seek leaves a gap in the samples, so
+     * the entry is dropped.
+     */
+    private static final class RecordingConsumer implements MpegTrackConsumer {
+        private final MpegTrackConsumer delegate;
+        private final AudioDiskCache.Writer writer;
+        private final ByteBufferChannel sampleChannel = new ByteBufferChannel();
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private boolean recording = true;
+
+        private RecordingConsumer(MpegTrackConsumer delegate, AudioDiskCache.Writer writer) {
+            this.delegate = delegate;
+            this.writer = writer;
+        }
+
+        @Override
+        public MpegTrackInfo getTrack() {
+            return delegate.getTrack();
+        }
+
+        @Override
+        public void initialise() {
+            delegate.initialise();
+        }
+
+        @Override
+        public void seekPerformed(long requestedTimecode, long providedTimecode) {
+            if (recording) {
+                recording = false;
+                writer.abandon();
+            }
+
+            delegate.seekPerformed(requestedTimecode, providedTimecode);
+        }
+
+        @Override
+        public void flush() throws InterruptedException {
+            delegate.flush();
+        }
+
+        @Override
+        public void consume(ReadableByteChannel channel, int length) throws InterruptedException {
+            if (!recording) {
+                delegate.consume(channel, length);
+                return;
+            }
+
+            if (buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+            }
+
+            buffer.clear().limit(length);
+
+            try {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Keep reading until the sample is complete
+                }
+            } catch (IOException e) {
+                recording = false;
+                writer.abandon();
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.flip();
+            writer.append(buffer.duplicate());
+            delegate.consume(sampleChannel.reset(buffer), length);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
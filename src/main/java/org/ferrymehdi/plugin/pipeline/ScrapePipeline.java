@@ -0,0 +1,224 @@
+package org.ferrymehdi.plugin.pipeline;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import org.ferrymehdi.plugin.http.RequestScope;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chain of {@link Stage}s, such as fetch, extract and resolve, where the output of one stage is the input of the
+ * next one. Each stage brings its own caching, timeout and retry options, every stage run is reported to a
+ * {@link StageListener}.
+ * <p>
+ * Pipelines are immutable and can be run concurrently, {@link #then(Stage)} returns a new, longer pipeline.
+ *
+ * @param <I> Input of the first stage
+ * @param <O> Output of the last stage
+ */
+public final class ScrapePipeline<I, O> {
+    private static final long RETRY_BACKOFF_MS = 100;
+    private static final String CACHE_STAGE = "cache";
+
+    private final String name;
+    private final List<Stage<?, ?>> stages;
+    private final StageListener listener;
+    private final StageCache<I, O> cache;
+
+    private ScrapePipeline(String name, List<Stage<?, ?>> stages, StageListener listener, StageCache<I, O> cache) {
+        this.name = name;
+        this.stages = stages;
+        this.listener = listener;
+        this.cache = cache;
+    }
+
+    /**
+     * @param name
+     *         Name of the pipeline, used in metrics
+     * @param first
+     *         The first stage
+     * @param listener
+     *         Receives the result of every stage run
+     */
+    public static <I, O> ScrapePipeline<I, O> start(String name, Stage<I, O> first, StageListener listener) {
+        return new ScrapePipeline<>(name, List.of(first), listener, null);
+    }
+
+    public <N> ScrapePipeline<I, N> then(Stage<O, N> next) {
+        if (cache != null) {
+            throw new IllegalStateException("Stages can not be added after the cache of the pipeline");
+        }
+
+        final List<Stage<?, ?>> extended = new ArrayList<>(stages);
+        extended.add(next);
+        return new ScrapePipeline<>(name, Collections.unmodifiableList(extended), listener, null);
+    }
+
+    /**
+     * Caches the output of the whole pipeline by its input, for pipelines whose intermediate outputs are not worth
+     * caching, such as fetched pages. Lookups are reported as a stage named {@code cache}.
+     *
+     * @param cache
+     *         Cache consulted before running the first stage, outputs of successful runs are stored in it
+     */
+    public ScrapePipeline<I, O> withCache(StageCache<I, O> cache) {
+        return new ScrapePipeline<>(name, stages, listener, cache);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Runs all stages in order on the calling thread. Nothing is run if the cache of the pipeline has the output.
+     *
+     * @throws IOException
+     *         If a stage failed with an I/O error after its retries, or timed out
+     * @throws FriendlyException
+     *         If a stage failed with one
+     */
+    public O run(I input) throws IOException {
+        if (cache == null) {
+            return runStages(input);
+        }
+
+        final long start = System.nanoTime();
+        final O cached = cache.get(input);
+        listener.onStageComplete(name, CACHE_STAGE, System.nanoTime() - start, cached != null, 0, null);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final O output = runStages(input);
+
+        if (output != null) {
+            cache.put(input, output);
+        }
+
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private O runStages(I input) throws IOException {
+        Object value = input;
+
+        for (final Stage<?, ?> stage : stages) {
+            value = runStage((Stage<Object, Object>) stage, value);
+        }
+
+        return (O) value;
+    }
+
+    private Object runStage(Stage<Object, Object> stage, Object input) throws IOException {
+        final long start = System.nanoTime();
+        final StageCache<Object, Object> cache = stage.getCache();
+
+        if (cache != null) {
+            final Object cached = cache.get(input);
+
+            if (cached != null) {
+                listener.onStageComplete(name, stage.getName(), System.nanoTime() - start, true, 0, null);
+                return cached;
+            }
+        }
+
+        int attempts = 0;
+
+        while (true) {
+            attempts++;
+
+            try {
+                final Object output = attempt(stage, input);
+
+                if (cache != null && output != null) {
+                    cache.put(input, output);
+                }
+
+                listener.onStageComplete(name, stage.getName(), System.nanoTime() - start, false, attempts, null);
+                return output;
+            } catch (IOException e) {
+                if (attempts > stage.getRetries() || e instanceof InterruptedIOException || isScopeCancelled()) {
+                    listener.onStageComplete(name, stage.getName(), System.nanoTime() - start, false, attempts, e);
+                    throw e;
+                }
+
+                backoff(attempts);
+            } catch (RuntimeException e) {
+                listener.onStageComplete(name, stage.getName(), System.nanoTime() - start, false, attempts, e);
+                throw e;
+            }
+        }
+    }
+
+    private Object attempt(Stage<Object, Object> stage, Object input) throws IOException {
+        if (stage.getTimeout() == null) {
+            return invoke(stage, input);
+        }
+
+        // Blocking requests ignore interrupts, so the attempt runs in a scope that aborts its requests on timeout. The
+        // scope is nested in the current one and also ends with its deadline.
+        final String stageName = name + "/" + stage.getName();
+        final RequestScope scope = RequestScope.withDeadline(stageName, stage.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+
+        try (RequestScope.Binding ignored = scope.bind()) {
+            return invoke(stage, input);
+        } catch (IOException | RuntimeException e) {
+            if (!scope.isExpired() || isScopeCancelled()) {
+                throw e;
+            }
+
+            final StageTimeoutException timeout = new StageTimeoutException(
+                stageName + " timed out after " + stage.getTimeout().toMillis() + "ms"
+            );
+
+            timeout.initCause(e);
+            throw timeout;
+        } finally {
+            scope.close();
+        }
+    }
+
+    private Object invoke(Stage<Object, Object> stage, Object input) throws IOException {
+        try {
+            return stage.getFunction().apply(input);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during " + name + "/" + stage.getName());
+        } catch (Exception e) {
+            throw new IOException(name + "/" + stage.getName() + " failed", e);
+        }
+    }
+
+    /**
+     * @return Whether the work the pipeline runs for was cancelled or ran out of time, retrying is pointless then
+     */
+    private static boolean isScopeCancelled() {
+        final RequestScope scope = RequestScope.current();
+        return scope != null && scope.isCancelled();
+    }
+
+    private static void backoff(int attempts) throws InterruptedIOException {
+        try {
+            Thread.sleep(RETRY_BACKOFF_MS * attempts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Thrown when a single attempt of a stage took longer than its timeout.
+     */
+    public static class StageTimeoutException extends IOException {
+        public StageTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
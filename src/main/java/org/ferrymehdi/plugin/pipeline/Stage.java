@@ -0,0 +1,81 @@
+package org.ferrymehdi.plugin.pipeline;
+
+import java.time.Duration;
+
+/**
+ * One step of a {@link ScrapePipeline}, for example fetching a page or extracting data from it.
+ * <p>
+ * Stages are immutable, the {@code with} methods return a copy with the option applied.
+ *
+ * @param <I> The input of the stage, also used as the cache key
+ * @param <O> The output of the stage
+ */
+public final class Stage<I, O> {
+    private final String name;
+    private final StageFunction<I, O> function;
+    private final StageCache<I, O> cache;
+    private final Duration timeout;
+    private final int retries;
+
+    private Stage(String name, StageFunction<I, O> function, StageCache<I, O> cache, Duration timeout, int retries) {
+        this.name = name;
+        this.function = function;
+        this.cache = cache;
+        this.timeout = timeout;
+        this.retries = retries;
+    }
+
+    public static <I, O> Stage<I, O> of(String name, StageFunction<I, O> function) {
+        return new Stage<>(name, function, null, null, 0);
+    }
+
+    /**
+     * @param cache
+     *         Cache consulted before running the stage, successful outputs are stored in it
+     */
+    public Stage<I, O> withCache(StageCache<I, O> cache) {
+        return new Stage<>(name, function, cache, timeout, retries);
+    }
+
+    /**
+     * @param timeout
+     *         Maximum duration of a single attempt. Its requests are aborted once it is spent, and the attempt fails
+     *         with a {@link ScrapePipeline.StageTimeoutException}, which is retried like any other I/O error.
+     */
+    public Stage<I, O> withTimeout(Duration timeout) {
+        return new Stage<>(name, function, cache, timeout, retries);
+    }
+
+    /**
+     * @param retries
+     *         How often the stage is repeated after an I/O error
+     */
+    public Stage<I, O> withRetries(int retries) {
+        return new Stage<>(name, function, cache, timeout, retries);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    StageFunction<I, O> getFunction() {
+        return function;
+    }
+
+    StageCache<I, O> getCache() {
+        return cache;
+    }
+
+    Duration getTimeout() {
+        return timeout;
+    }
+
+    int getRetries() {
+        return retries;
+    }
+
+    @FunctionalInterface
+    public interface StageFunction<I, O> {
+        O apply(I input) throws Exception;
+    }
+}
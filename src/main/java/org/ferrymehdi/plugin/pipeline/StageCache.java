@@ -0,0 +1,13 @@
+package org.ferrymehdi.plugin.pipeline;
+
+/**
+ * Stores stage outputs by stage input.
+ */
+public interface StageCache<K, V> {
+    /**
+     * @return The cached value, or null if there is none or it expired
+     */
+    V get(K key);
+
+    void put(K key, V value);
+}
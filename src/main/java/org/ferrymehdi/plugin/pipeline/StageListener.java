@@ -0,0 +1,23 @@
+package org.ferrymehdi.plugin.pipeline;
+
+/**
+ * Metrics hook, called after every stage of every pipeline run.
+ */
+@FunctionalInterface
+public interface StageListener {
+    /**
+     * @param pipeline
+     *         Name of the pipeline
+     * @param stage
+     *         Name of the stage
+     * @param nanos
+     *         Time spent in the stage, including retries
+     * @param cacheHit
+     *         Whether the output came from the cache of the stage
+     * @param attempts
+     *         How often the stage function was run, zero on a cache hit
+     * @param error
+     *         The error the stage failed with, null on success
+     */
+    void onStageComplete(String pipeline, String stage, long nanos, boolean cacheHit, int attempts, Throwable error);
+}
@@ -0,0 +1,64 @@
+package org.ferrymehdi.plugin.pipeline;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps counters and timings per pipeline stage.
+ */
+public class StageMetrics implements StageListener {
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    @Override
+    public void onStageComplete(String pipeline, String stage, long nanos, boolean cacheHit, int attempts, Throwable error) {
+        final Counters stageCounters = counters.computeIfAbsent(pipeline + "/" + stage, (key) -> new Counters());
+
+        stageCounters.runs.incrementAndGet();
+        stageCounters.totalNanos.addAndGet(nanos);
+        stageCounters.maxNanos.accumulateAndGet(nanos, Math::max);
+
+        if (cacheHit) {
+            stageCounters.cacheHits.incrementAndGet();
+        }
+
+        if (attempts > 1) {
+            stageCounters.retries.addAndGet(attempts - 1);
+        }
+
+        if (error != null) {
+            stageCounters.failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return One line per stage, keyed by {@code pipeline/stage}
+     */
+    public Map<String, String> describe() {
+        final Map<String, String> result = new TreeMap<>();
+
+        counters.forEach((key, value) -> result.put(key, value.toString()));
+        return result;
+    }
+
+    private static final class Counters {
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        @Override
+        public String toString() {
+            final long count = runs.get();
+
+            return "runs=" + count + " cacheHits=" + cacheHits.get() + " retries=" + retries.get() +
+                " failures=" + failures.get() +
+                " avgMs=" + (count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count)) +
+                " maxMs=" + TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+    }
+}
@@ -6,18 +6,41 @@ import com.sedmelluq.discord.lavaplayer.tools.ExceptionTools;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity;
 import com.sedmelluq.discord.lavaplayer.tools.JsonBrowser;
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
 import com.sedmelluq.discord.lavaplayer.track.*;
-import org.apache.commons.io.IOUtils;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
 import org.ferrymehdi.plugin.AbstractFerryHttpSource;
+import org.ferrymehdi.plugin.IdentifierFilter;
+import org.ferrymehdi.plugin.PagedSearchPlaylist;
+import org.ferrymehdi.plugin.cache.Codec;
+import org.ferrymehdi.plugin.cache.Codecs;
+import org.ferrymehdi.plugin.cache.InMemorySharedCache;
+import org.ferrymehdi.plugin.cache.SharedCache;
+import org.ferrymehdi.plugin.cache.SharedStageCache;
+import org.ferrymehdi.plugin.http.FetchedPage;
+import org.ferrymehdi.plugin.http.HostRateLimiter;
+import org.ferrymehdi.plugin.http.RequestHedger;
+import org.ferrymehdi.plugin.http.SessionPool;
+import org.ferrymehdi.plugin.media.AudioDiskCache;
+import org.ferrymehdi.plugin.pipeline.ScrapePipeline;
+import org.ferrymehdi.plugin.pipeline.Stage;
 import org.jsoup.Jsoup;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -31,20 +54,186 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
 
     private static final String SEARCH_PREFIX = "phsearch";
     private static final String SEARCH_PREFIX_DEFAULT = "phsearch:";
+    private static final IdentifierFilter IDENTIFIER_FILTER = IdentifierFilter.builder()
+        .prefix(SEARCH_PREFIX_DEFAULT)
+        .domain("pornhub.com")
+        .domain("pornhub.net")
+        .domain("pornhub.org")
+        .build();
+    private static final String AGE_VERIFICATION_COOKIES = "platform=pc; age_verified=1; accessAgeDisclaimerPH=1";
+    // A single hung request is cut short and retried once, within the deadline of the whole operation.
+    private static final Duration REQUEST_STAGE_TIMEOUT = Duration.ofSeconds(6);
+
+    public static final String DEFAULT_BASE_URL = "https://www.pornhub.com";
+
+    private final String baseUrl;
+    private final SessionPool.Initializer sessionInitializer = new SessionInitializer();
+    private volatile boolean prefetchSearchPages = false;
+    private volatile RequestHedger mediaHedger;
+    private volatile AudioDiskCache audioCache;
+
+    private final SharedStageCache<String, AudioTrack> videoCache;
+    private final SharedStageCache<SearchPage, List<AudioTrack>> searchCache;
+    private final SharedStageCache<String, String> mediaUrlCache;
+    private final SharedCache localMediaUrls = new InMemorySharedCache(1024 * 1024);
+    private final ScrapePipeline<String, AudioTrack> videoPipeline;
+    private final ScrapePipeline<SearchPage, List<AudioTrack>> searchPipeline;
+    private final ScrapePipeline<String, String> playbackPipeline;
+
+    public PornHubAudioSourceManager() {
+        this(DEFAULT_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl
+     *         The origin pages are loaded from, without a trailing slash. Video links are still only accepted with
+     *         their real domain, this is meant for pointing the source at a mirror or a local fixture server.
+     */
+    public PornHubAudioSourceManager(String baseUrl) {
+        this(baseUrl, false);
+    }
+
+    /**
+     * @param baseUrl
+     *         The origin pages are loaded from, without a trailing slash, see {@link #PornHubAudioSourceManager(String)}
+     * @param warmUpOnStart
+     *         Whether to start {@link #warmUp() warming up} right away
+     */
+    public PornHubAudioSourceManager(String baseUrl, boolean warmUpOnStart) {
+        this.baseUrl = baseUrl;
+
+        final HostRateLimiter limiter = getHostLimiter();
+
+        if (limiter != null) {
+            limiter.configureHostIfAbsent("pornhub.com", 20, 40);
+        }
+
+        final Codec<AudioTrack> trackCodec = Codecs.track((info) -> new PornHubAudioTrack(info, this));
+
+        this.videoCache = sharedCache("video", Function.identity(), trackCodec, Duration.ofHours(1));
+        this.searchCache = sharedCache("search", (search) -> search.number + ":" + search.query, Codecs.listOf(trackCodec), Duration.ofMinutes(5));
+        // Media urls are signed and may be bound to the address that resolved them, so they are only kept on this node.
+        // Like the shared values, they are only cached while a shared cache is set.
+        this.mediaUrlCache = new SharedStageCache<>(
+            () -> getSharedCache() != null ? localMediaUrls : null,
+            getSourceName() + ":media-url",
+            Function.identity(),
+            Codecs.STRING,
+            Duration.ofMinutes(10)
+        );
+
+        final PornHubMediaResolver mediaResolver = new PornHubMediaResolver(this);
+        final Stage<String, Loaded<String>> watchPage = Stage.of("watch-page", this::loadWatchPage)
+            .withTimeout(REQUEST_STAGE_TIMEOUT)
+            .withRetries(1);
+
+        this.videoPipeline = pipeline("video", watchPage)
+            .then(Stage.of("extract-video", this::extractVideo))
+            .withCache(videoCache);
+
+        final Stage<SearchPage, Loaded<SearchPage>> searchPage = Stage.of("search-page", this::loadSearchPage)
+            .withTimeout(REQUEST_STAGE_TIMEOUT)
+            .withRetries(1);
+
+        this.searchPipeline = pipeline("search", searchPage)
+            .then(Stage.of("extract-results", this::extractSearchResults))
+            .withCache(searchCache);
+
+        this.playbackPipeline = pipeline("playback", watchPage)
+            .then(Stage.of("extract-media", (Loaded<String> loaded) -> mediaResolver.extractMediaInfo(loaded.page)))
+            .then(Stage.of("resolve-media-url", mediaResolver::resolveMediaUrl).withTimeout(REQUEST_STAGE_TIMEOUT).withRetries(1))
+            .withCache(mediaUrlCache);
+
+        if (warmUpOnStart) {
+            warmUp();
+        }
+    }
 
     @Override
     public String getSourceName() {
         return "pornhub";
     }
 
+    @Override
+    public IdentifierFilter getIdentifierFilter() {
+        return IDENTIFIER_FILTER;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public RequestHedger getMediaHedger() {
+        return mediaHedger;
+    }
+
+    /**
+     * @param mediaHedger
+     *         Hedges slow media info requests with one for an alternate definition, null to disable hedging. The
+     *         stream of the media itself is not hedged.
+     */
+    public void setMediaHedger(RequestHedger mediaHedger) {
+        this.mediaHedger = mediaHedger;
+    }
+
+    public AudioDiskCache getAudioCache() {
+        return audioCache;
+    }
+
+    /**
+     * @param audioCache
+     *         Keeps the audio of fully played videos on disk for later plays, null to always stream from the CDN
+     */
+    public void setAudioCache(AudioDiskCache audioCache) {
+        this.audioCache = audioCache;
+    }
+
+    /**
+     * @return Video metadata in the {@link #setSharedCache shared cache}, by viewkey
+     */
+    public SharedStageCache<String, AudioTrack> getVideoCache() {
+        return videoCache;
+    }
+
+    /**
+     * @return Search result pages in the shared cache, by query and page number
+     */
+    public SharedStageCache<?, List<AudioTrack>> getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * @return Resolved media urls, by viewkey. Kept in memory of this node rather than in the shared cache, as the CDN
+     * may only accept them from the address they were resolved from.
+     */
+    public SharedStageCache<String, String> getMediaUrlCache() {
+        return mediaUrlCache;
+    }
+
+    /**
+     * @param prefetchSearchPages
+     *         Whether search playlists should fetch the page after the last requested one in the background
+     */
+    public void setPrefetchSearchPages(boolean prefetchSearchPages) {
+        this.prefetchSearchPages = prefetchSearchPages;
+    }
+
     @Override
     public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+        if (!isCandidate(reference.identifier)) {
+            return null;
+        }
+
         try {
-            if (!VIDEO_REGEX.matcher(reference.identifier).matches()) {
-                return processAsSearchQuery(reference);
-            }
+            return withDeadline(Operation.LOAD_ITEM, () -> {
+                final Matcher matcher = VIDEO_REGEX.matcher(reference.identifier);
+
+                if (!matcher.matches()) {
+                    return processAsSearchQuery(reference);
+                }
 
-            return loadItemOnce(reference);
+                return videoPipeline.run(matcher.group(matcher.groupCount()));
+            });
         } catch (Exception e) {
             throw ExceptionTools.wrapUnfriendlyExceptions("Something went wrong", Severity.SUSPICIOUS, e);
         }
@@ -65,6 +254,17 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
         return new PornHubAudioTrack(trackInfo, this);
     }
 
+    /**
+     * Resolves the url of the mp4 file of a video: loads its watch page, extracts the media definitions and asks
+     * for the url of the default quality.
+     *
+     * @param viewkey
+     *         The viewkey of the video
+     */
+    public String resolvePlaybackUrl(String viewkey) throws IOException {
+        return withDeadline(Operation.PLAYBACK_URL, () -> playbackPipeline.run(viewkey));
+    }
+
     private AudioItem processAsSearchQuery(AudioReference reference) throws IOException {
         if (reference.identifier.startsWith(SEARCH_PREFIX)) {
             if (reference.identifier.startsWith(SEARCH_PREFIX_DEFAULT)) {
@@ -76,24 +276,61 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
     }
 
     public AudioItem attemptSearch(String query) throws IOException {
-        // https://www.pornhub.com/video/search?search=a+few+words
+        final List<AudioTrack> firstPage = withDeadline(Operation.SEARCH, () -> searchPipeline.run(new SearchPage(query, 1)));
 
-        final String html = loadHtml(
-                "https://www.pornhub.com/video/search?search=" +
-                        URLEncoder.encode(query, StandardCharsets.UTF_8)
+        return new PagedSearchPlaylist(
+                "Search results for " + query,
+                firstPage,
+                (page) -> withDeadline(Operation.SEARCH, () -> searchPipeline.run(new SearchPage(query, page))),
+                prefetchSearchPages ? getExecutor() : null
         );
+    }
+
+    private Loaded<SearchPage> loadSearchPage(SearchPage search) throws IOException {
+        // https://www.pornhub.com/video/search?search=a+few+words&page=2
+
+        final SessionPool.Session session = acquireSession();
+        final FetchedPage page;
+
+        try {
+            page = fetchPage(
+                    baseUrl + "/video/search?search=" +
+                            URLEncoder.encode(search.query, StandardCharsets.UTF_8) +
+                            (search.number > 1 ? "&page=" + search.number : ""),
+                    session
+            );
+        } catch (IOException e) {
+            if (session != null) {
+                session.invalidate();
+            }
+
+            throw e;
+        }
+
+        return new Loaded<>(search, page);
+    }
+
+    private List<AudioTrack> extractSearchResults(Loaded<SearchPage> loaded) {
+        if (loaded.page == null) {
+            if (loaded.key.number > 1) {
+                // Past the last page
+                return Collections.emptyList();
+            }
 
-        if (html == null) {
             notAvailable();
         }
 
         // ul#videoSearchResult -> contains results
         // li.pcVideoListItem -> contains all videos
 
-        final var document = Jsoup.parse(html);
+        final var document = Jsoup.parse(loaded.page.getBody());
         final var results = document.select("ul#videoSearchResult").first();
 
         if (results == null) {
+            if (loaded.key.number > 1) {
+                return Collections.emptyList();
+            }
+
             throw new FriendlyException(
                     "Search result element not found, contact dev",
                     Severity.SUSPICIOUS,
@@ -103,25 +340,35 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
 
         final var videos = results.select("li.pcVideoListItem");
 
-        final var phTracks = videos.stream()
+        return videos.stream()
                 .map((it) -> PHHelpers.trackFromSearchElement(it, this))
                 .collect(Collectors.toList());
-
-        return new BasicAudioPlaylist(
-                "Search results for " + query,
-                phTracks,
-                null,
-                true
-        );
     }
 
-    private AudioItem loadItemOnce(AudioReference reference) throws IOException {
-        final String html = loadHtml(reference.identifier);
+    private Loaded<String> loadWatchPage(String viewkey) throws IOException {
+        final SessionPool.Session session = acquireSession();
+        final FetchedPage page;
+
+        try {
+            page = fetchPage(getPlayerPageUrl(viewkey), session);
+        } catch (IOException e) {
+            if (session != null) {
+                // Most likely blocked or served an interstitial, retry with another session.
+                session.invalidate();
+            }
+
+            throw e;
+        }
 
-        if (html == null) {
+        if (page == null) {
             notAvailable();
         }
 
+        return new Loaded<>(viewkey, page);
+    }
+
+    private AudioTrack extractVideo(Loaded<String> loaded) throws IOException {
+        final String html = loaded.page.getBody();
         final JsonBrowser videoInfo = getVideoInfo(html);
         final JsonBrowser modelInfo = getModelInfo(html);
 
@@ -136,16 +383,14 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
         final String title = videoInfo.get("video_title").safeText();
         final String author = modelInfo.get("username").safeText();
         final int duration = Integer.parseInt(videoInfo.get("video_duration").safeText()) * 1000; // PornHub returns seconds
-        final Matcher matcher = VIDEO_REGEX.matcher(reference.identifier);
-        final String identifier = matcher.matches() ? matcher.group(matcher.groupCount()) : null;
-        final String uri = reference.identifier;
+        final String uri = getPlayerPage(loaded.key);
         final String imageUrl = videoInfo.get("image_url").safeText();
 
         return buildAudioTrack(
             title,
             author,
             duration,
-            identifier,
+            loaded.key,
             uri,
             imageUrl
         );
@@ -198,24 +443,24 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
         return null;
     }
 
-    private String loadHtml(String url) throws IOException {
+    private FetchedPage fetchPage(String url, SessionPool.Session session) throws IOException {
         final HttpGet httpGet = new HttpGet(url);
 
-        httpGet.setHeader("Cookie", "platform=pc; age_verified=1; accessAgeDisclaimerPH=1");
-
-        try (final CloseableHttpResponse response = getHttpInterface().execute(httpGet)) {
-            final int statusCode = response.getStatusLine().getStatusCode();
+        if (session == null) {
+            httpGet.setHeader("Cookie", AGE_VERIFICATION_COOKIES);
+        }
 
-            if (statusCode != 200) {
-                if (statusCode == 404) {
-                    return null;
-                }
+        return fetchPage(httpGet, session);
+    }
 
-                throw new IOException("Unexpected status code for video page response: " + statusCode);
-            }
+    @Override
+    protected Collection<String> getWarmUpUrls() {
+        return List.of(baseUrl + "/");
+    }
 
-            return IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8);
-        }
+    @Override
+    protected SessionPool.Initializer getSessionInitializer() {
+        return sessionInitializer;
     }
 
     private void notAvailable() {
@@ -223,6 +468,78 @@ public class PornHubAudioSourceManager extends AbstractFerryHttpSource {
     }
 
     public static String getPlayerPage(String id) {
-        return "https://www.pornhub.com/view_video.php?viewkey=" + id;
+        return DEFAULT_BASE_URL + "/view_video.php?viewkey=" + id;
+    }
+
+    public String getPlayerPageUrl(String id) {
+        return baseUrl + "/view_video.php?viewkey=" + id;
+    }
+
+    /**
+     * Seeds sessions with the age verification cookies and picks up the session cookies of the front page, so the
+     * watch page is served right away.
+     */
+    private final class SessionInitializer implements SessionPool.Initializer {
+        @Override
+        public void seed(CookieStore cookies) {
+            final String host = URI.create(baseUrl).getHost();
+
+            for (final String pair : AGE_VERIFICATION_COOKIES.split("; ")) {
+                final String[] parts = pair.split("=", 2);
+                cookies.addCookie(SessionPool.Session.cookie(host, parts[0], parts[1]));
+            }
+        }
+
+        @Override
+        public void warm(SessionPool.Session session, HttpInterface httpInterface) throws IOException {
+            try (final CloseableHttpResponse response = session.execute(httpInterface, new HttpGet(baseUrl + "/"))) {
+                final int statusCode = response.getStatusLine().getStatusCode();
+
+                if (statusCode != 200) {
+                    throw new IOException("Unexpected status code for front page: " + statusCode);
+                }
+
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+    }
+
+    /**
+     * A page of search results, the input of the search pipeline.
+     */
+    private static final class SearchPage {
+        private final String query;
+        private final int number;
+
+        private SearchPage(String query, int number) {
+            this.query = query;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SearchPage)) return false;
+            final SearchPage other = (SearchPage) o;
+            return number == other.number && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, number);
+        }
+    }
+
+    /**
+     * A fetched page along with what it was fetched for, the page is null if it does not exist.
+     */
+    private static final class Loaded<K> {
+        private final K key;
+        private final FetchedPage page;
+
+        private Loaded(K key, FetchedPage page) {
+            this.key = key;
+            this.page = page;
+        }
     }
 }
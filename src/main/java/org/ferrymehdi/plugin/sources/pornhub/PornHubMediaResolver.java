@@ -0,0 +1,230 @@
+package org.ferrymehdi.plugin.sources.pornhub;
+
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.JsonBrowser;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ferrymehdi.plugin.http.FetchedPage;
+import org.ferrymehdi.plugin.http.RequestHedger;
+import org.ferrymehdi.plugin.http.SessionPool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity.*;
+import static org.ferrymehdi.plugin.sources.pornhub.PornHubAudioSourceManager.VIDEO_INFO_REGEX;
+
+/**
+ * The extract and resolve stages of the PornHub playback pipeline: finds the media definitions on a watch page and
+ * turns them into the url of the mp4 file.
+ */
+class PornHubMediaResolver {
+    private static final Pattern MEDIA_STRING_FILTER = Pattern.compile("\\/\\* \\+ [a-zA-Z0-9_]+ \\+ \\*\\/");
+
+    private final PornHubAudioSourceManager sourceManager;
+
+    PornHubMediaResolver(PornHubAudioSourceManager sourceManager) {
+        this.sourceManager = sourceManager;
+    }
+
+    MediaInfo extractMediaInfo(FetchedPage page) throws IOException {
+        final String html = page.getBody();
+        final Matcher matcher = VIDEO_INFO_REGEX.matcher(html);
+
+        if (matcher.find()) {
+            final String js = matcher.group(matcher.groupCount());
+            final JsonBrowser videoInfo = JsonBrowser.parse(js);
+
+            if (videoInfo.get("video_unavailable_country").asBoolean(false)) {
+                throw new FriendlyException("Video is not available in your country", COMMON, null);
+            }
+
+            final JsonBrowser defs = videoInfo.get("mediaDefinitions");
+
+            if (defs.isNull()) {
+                throw new FriendlyException("Media info not present", COMMON, null);
+            }
+
+            int i = 0;
+            while (!defs.index(i).isNull()) {
+                final JsonBrowser definition = defs.index(i);
+                // we found the default quality
+                if ("mp4".equalsIgnoreCase(definition.get("format").safeText())) {
+                    String getMedia = definition.get("videoUrl").safeText();
+
+                    if (getMedia.isBlank()) {
+                        // Try the old way when the videoUrl is blank.
+                        getMedia = parseJsValueToUrl(
+                                html,
+                                scoupMediaVar(html, "media_" + i)
+                        );
+                    }
+
+                    return new MediaInfo(
+                        page.getUrl(),
+                        getMedia,
+                        findAlternateMedia(defs, i + 1, getMedia),
+                        page.getCookieHeader(),
+                        page.getSession()
+                    );
+                }
+
+                i++;
+            }
+        }
+
+        throw new FriendlyException("Could not find media info", COMMON, null);
+    }
+
+    String resolveMediaUrl(MediaInfo info) throws IOException {
+        final RequestHedger hedger = sourceManager.getMediaHedger();
+
+        // Sending the same request again only doubles the load on a slow node, hedging needs another definition.
+        if (hedger == null || info.alternateMediaUrl == null) {
+            try (final CloseableHttpResponse response = sourceManager.execute(createMediaRequest(info, info.mediaUrl), info.session)) {
+                return readMediaUrl(response);
+            }
+        }
+
+        return hedger.execute(
+            sourceManager.getExecutor(),
+            (request) -> sourceManager.execute(request, info.session),
+            new MediaAttempt(info, info.mediaUrl),
+            new MediaAttempt(info, info.alternateMediaUrl)
+        );
+    }
+
+    /**
+     * @return The media url of the next mp4 definition to hedge with, null if there is no other one
+     */
+    private String findAlternateMedia(JsonBrowser defs, int start, String primary) {
+        for (int i = start; !defs.index(i).isNull(); i++) {
+            final JsonBrowser definition = defs.index(i);
+            final String videoUrl = definition.get("videoUrl").safeText();
+
+            if ("mp4".equalsIgnoreCase(definition.get("format").safeText()) && !videoUrl.isBlank() && !videoUrl.equals(primary)) {
+                return videoUrl;
+            }
+        }
+
+        return null;
+    }
+
+    private String scoupMediaVar(String html, String varName) {
+        final Pattern pattern = Pattern.compile("(var(?:\\s+)?" + varName + "(?:\\s+)?=(?:\\s+)?[^;]+;)");
+        final Matcher matcher = pattern.matcher(html);
+
+        if (!matcher.find()) {
+            throw new FriendlyException("Media var has changed, please contact developer", FAULT, null);
+        }
+
+        return matcher.group(matcher.groupCount());
+    }
+
+    private String parseJsValueToUrl(String htmlPage, String js) {
+        final String filteredJsValue = MEDIA_STRING_FILTER.matcher(js).replaceAll("");
+        final String variables = filteredJsValue.split("=")[1].split(";")[0];
+        final String[] items = variables.split("\\+");
+        final List<String> videoParts = new ArrayList<>();
+
+        for (final String i : items) {
+            final String item = i.trim();
+            final String regex = "var\\s+?" + item + "=\"([a-zA-Z0-9=?&%~_\\-\\.\\/\"\\+: ]+)\";";
+            final Pattern pattern = Pattern.compile(regex);
+            final Matcher matcher = pattern.matcher(htmlPage);
+
+            if (!matcher.find()) {
+                throw new FriendlyException("URL part " + item + " missing", SUSPICIOUS, null);
+            }
+
+            videoParts.add(
+                matcher.group(matcher.groupCount()).replaceAll("\"\\s+?\\+\\s+?\"", "")
+            );
+        }
+
+        return String.join("", videoParts);
+    }
+
+    private HttpGet createMediaRequest(MediaInfo info, String jsonPage) {
+        final HttpGet mediaGet = new HttpGet(jsonPage);
+
+        if (info.session == null) {
+            mediaGet.setHeader("Cookie", info.cookies + "; platform=pc; age_verified=1; accessAgeDisclaimerPH=1");
+        }
+
+        mediaGet.setHeader("Referer", info.playerPage);
+
+        return mediaGet;
+    }
+
+    private String readMediaUrl(CloseableHttpResponse response) throws IOException {
+        final String body = IOUtils.toString(response.getEntity().getContent(), StandardCharsets.UTF_8);
+        final JsonBrowser json = JsonBrowser.parse(body);
+
+        for (JsonBrowser info : json.values()) {
+            if (info.get("defaultQuality").asBoolean(false)) {
+                return info.get("videoUrl").text();
+            }
+        }
+
+        final JsonBrowser firstItem = json.index(0);
+
+        if (firstItem.isNull()) {
+            throw new FriendlyException("Video url missing on playback page", FAULT, null);
+        }
+
+        final String videoUrl = firstItem.get("videoUrl").text();
+
+        if (videoUrl == null) {
+            throw new FriendlyException("Video url missing on playback page", FAULT, null);
+        }
+
+        return videoUrl;
+    }
+
+    /**
+     * Output of the extract stage: where to get the media url from, and the session cookies to do it with. Pooled
+     * sessions carry their cookies themselves, otherwise they are sent by hand.
+     */
+    static final class MediaInfo {
+        private final String playerPage;
+        private final String mediaUrl;
+        private final String alternateMediaUrl;
+        private final String cookies;
+        private final SessionPool.Session session;
+
+        MediaInfo(String playerPage, String mediaUrl, String alternateMediaUrl, String cookies, SessionPool.Session session) {
+            this.playerPage = playerPage;
+            this.mediaUrl = mediaUrl;
+            this.alternateMediaUrl = alternateMediaUrl;
+            this.cookies = cookies;
+            this.session = session;
+        }
+    }
+
+    private final class MediaAttempt implements RequestHedger.Attempt<String> {
+        private final MediaInfo info;
+        private final String jsonPage;
+
+        private MediaAttempt(MediaInfo info, String jsonPage) {
+            this.info = info;
+            this.jsonPage = jsonPage;
+        }
+
+        @Override
+        public HttpUriRequest createRequest() {
+            return createMediaRequest(info, jsonPage);
+        }
+
+        @Override
+        public String handle(CloseableHttpResponse response) throws IOException {
+            return readMediaUrl(response);
+        }
+    }
+}
@@ -26,10 +26,18 @@ import static com.sedmelluq.discord.lavaplayer.tools.FriendlyException.Severity.
 // stored for reference in case I need them in the future
 public class StoredForReference extends PornHubAudioTrack {
 
-    public StoredForReference(AudioTrackInfo trackInfo, AbstractFerryHttpSource sourceManager) {
+    public StoredForReference(AudioTrackInfo trackInfo, PornHubAudioSourceManager sourceManager) {
         super(trackInfo, sourceManager);
     }
 
+    /**
+     * @deprecated Use {@link #StoredForReference(AudioTrackInfo, PornHubAudioSourceManager)}
+     */
+    @Deprecated
+    public StoredForReference(AudioTrackInfo trackInfo, AbstractFerryHttpSource sourceManager) {
+        this(trackInfo, asPornHubSource(sourceManager));
+    }
+
     private static final String[] FORMAT_PREFIXES = {"media", "quality", "qualityItems"};
     private static final String FORMAT_REGEX = String.format("(var\\s+(?:%s)_.+)", String.join("|", FORMAT_PREFIXES));
     private static final Pattern FORMAT_PATTERN = Pattern.compile(FORMAT_REGEX);
@@ -9,29 +9,103 @@ import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.ferrymehdi.plugin.AbstractFerryHttpSource;
+import org.ferrymehdi.plugin.IdentifierFilter;
+import org.ferrymehdi.plugin.cache.Codecs;
+import org.ferrymehdi.plugin.cache.SharedStageCache;
+import org.ferrymehdi.plugin.http.HostRateLimiter;
+import org.ferrymehdi.plugin.pipeline.ScrapePipeline;
+import org.ferrymehdi.plugin.pipeline.Stage;
+import org.ferrymehdi.plugin.pipeline.StageCache;
 
 public class SpeechAudioSourceManager extends AbstractFerryHttpSource {
 
     private static final String PREFIX = "speak:";
-    private static final String GOOGLE_TRANSLATE_URL = "https://translate.google.com/translate_tts" +
+    private static final IdentifierFilter IDENTIFIER_FILTER = IdentifierFilter.builder().prefix(PREFIX).build();
+    public static final String DEFAULT_TTS_URL = "https://translate.google.com/translate_tts";
+    private static final String GOOGLE_TRANSLATE_QUERY =
         "?tl=%language%" +
         "&q=%query%" +
         "&ie=UTF-8&total=1&idx=0" +
         "&text" + "len=%length%" +
         "&client=tw-ob";
+    private static final int MAX_CACHED_AUDIO_BYTES = 512 * 1024;
+    private static final Duration AUDIO_TIMEOUT = Duration.ofSeconds(10);
 
+    private final String language;
+    private final String ttsUrl;
     private final String templateURL;
+    private final SharedStageCache<String, byte[]> speechAudioCache;
+    private final ScrapePipeline<String, byte[]> audioPipeline;
+    private volatile SpeechFrameCache frameCache;
 
     /**
      * @param language
      *         The language and accent code to play back audio in
      */
     public SpeechAudioSourceManager(String language) {
-        this.templateURL = GOOGLE_TRANSLATE_URL.replace("%language%", language);
+        this(language, DEFAULT_TTS_URL);
+    }
+
+    /**
+     * @param language
+     *         The language and accent code to play back audio in
+     * @param ttsUrl
+     *         The text to speech endpoint, meant for pointing the source at a local fixture server
+     */
+    public SpeechAudioSourceManager(String language, String ttsUrl) {
+        this(language, ttsUrl, false);
+    }
+
+    /**
+     * @param language
+     *         The language and accent code to play back audio in
+     * @param ttsUrl
+     *         The text to speech endpoint, {@link #DEFAULT_TTS_URL} for Google Translate
+     * @param warmUpOnStart
+     *         Whether to start {@link #warmUp() warming up} right away
+     */
+    public SpeechAudioSourceManager(String language, String ttsUrl, boolean warmUpOnStart) {
+        this.language = language;
+        this.ttsUrl = ttsUrl;
+        this.templateURL = (ttsUrl + GOOGLE_TRANSLATE_QUERY).replace("%language%", language);
+
+        final HostRateLimiter limiter = getHostLimiter();
+
+        if (limiter != null) {
+            limiter.configureHostIfAbsent("translate.google.com", 20, 40);
+        }
+
+        this.speechAudioCache = sharedCache("audio", (text) -> language + ":" + text, Codecs.BYTES, Duration.ofDays(1));
+
+        this.audioPipeline = pipeline("audio", Stage.of("fetch-audio", this::fetchSpeechAudio).withTimeout(AUDIO_TIMEOUT).withRetries(1))
+            .withCache(new StageCache<>() {
+                @Override
+                public byte[] get(String text) {
+                    return speechAudioCache.get(text);
+                }
+
+                @Override
+                public void put(String text, byte[] audio) {
+                    if (audio.length <= MAX_CACHED_AUDIO_BYTES) {
+                        speechAudioCache.put(text, audio);
+                    }
+                }
+            });
+
+        if (warmUpOnStart) {
+            warmUp();
+        }
     }
 
     @Override
@@ -39,25 +113,68 @@ public class SpeechAudioSourceManager extends AbstractFerryHttpSource {
         return "speak";
     }
 
+    @Override
+    public IdentifierFilter getIdentifierFilter() {
+        return IDENTIFIER_FILTER;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public SpeechFrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * @param frameCache
+     *         Cache for the output frames of completed playbacks, null to decode every playback
+     */
+    public void setFrameCache(SpeechFrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * @return Downloaded speech audio in the {@link #setSharedCache shared cache}, by text
+     */
+    public SharedStageCache<String, byte[]> getSpeechAudioCache() {
+        return speechAudioCache;
+    }
+
+    /**
+     * Loads the whole MP3 file of a text. With a shared cache set, every node downloads a phrase only once.
+     *
+     * @return The MP3 file
+     */
+    byte[] loadSpeechAudio(String text) throws IOException {
+        return audioPipeline.run(text);
+    }
+
+    private byte[] fetchSpeechAudio(String text) throws IOException {
+        try (final CloseableHttpResponse response = getHttpInterface().execute(new HttpGet(buildUrl(text)))) {
+            final int statusCode = response.getStatusLine().getStatusCode();
+
+            if (statusCode != 200) {
+                throw new IOException("Unexpected status code for speech audio: " + statusCode);
+            }
+
+            return IOUtils.toByteArray(response.getEntity().getContent());
+        }
+    }
+
+    @Override
+    protected Collection<String> getWarmUpUrls() {
+        return List.of(ttsUrl);
+    }
+
     @Override
     public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
         // We check if it's larger so we don't send requests of nothing
-        if (!reference.identifier.startsWith(PREFIX) || reference.identifier.length() <= PREFIX.length()) {
+        if (!isCandidate(reference.identifier) || reference.identifier.length() <= PREFIX.length()) {
             return null;
         }
 
-        String data = reference.identifier.substring(PREFIX.length());
-        data = data
-            // Remove whitespaces at the end
-            .trim()
-            // Remove whitespaces at the front
-            .replaceAll("^\\s+", "");
-
-        final String encoded = URLEncoder.encode(data, StandardCharsets.UTF_8);
-
-        final String mp3URL = templateURL
-            .replace("%length%", Integer.toString(data.length()))
-            .replace("%query%", encoded);
+        final String data = extractText(reference.identifier);
 
         // Redirect to somewhere else
         return new SpeechAudioTrack(new AudioTrackInfo(
@@ -66,10 +183,26 @@ public class SpeechAudioSourceManager extends AbstractFerryHttpSource {
             Units.CONTENT_LENGTH_UNKNOWN,
             reference.identifier,
             false,
-            mp3URL
+            buildUrl(data)
         ), this);
     }
 
+    private String buildUrl(String data) {
+        final String encoded = URLEncoder.encode(data, StandardCharsets.UTF_8);
+
+        return templateURL
+            .replace("%length%", Integer.toString(data.length()))
+            .replace("%query%", encoded);
+    }
+
+    String extractText(String identifier) {
+        return identifier.substring(PREFIX.length())
+            // Remove whitespaces at the end
+            .trim()
+            // Remove whitespaces at the front
+            .replaceAll("^\\s+", "");
+    }
+
     @Override
     public boolean isTrackEncodable(AudioTrack track) {
         return true;
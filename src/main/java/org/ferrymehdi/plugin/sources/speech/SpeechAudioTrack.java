@@ -1,14 +1,27 @@
 package org.ferrymehdi.plugin.sources.speech;
 
-import org.ferrymehdi.plugin.AbstractFerryHttpSource;
 import org.ferrymehdi.plugin.Mp3Track;
+import org.ferrymehdi.plugin.media.ByteArraySeekableInputStream;
 
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerOptions;
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioProcessingContext;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SpeechAudioTrack extends Mp3Track {
-    SpeechAudioTrack(AudioTrackInfo trackInfo, AbstractFerryHttpSource manager) {
+    private final SpeechAudioSourceManager manager;
+    private volatile SpeechFrameCache.Recorder recorder;
+
+    SpeechAudioTrack(AudioTrackInfo trackInfo, SpeechAudioSourceManager manager) {
         super(trackInfo, manager);
+        this.manager = manager;
     }
 
     @Override
@@ -16,8 +29,142 @@ public class SpeechAudioTrack extends Mp3Track {
         return this.trackInfo.uri;
     }
 
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        final SpeechFrameCache cache = manager.getFrameCache();
+        final AudioProcessingContext context = executor.getProcessingContext();
+
+        if (cache == null || !hasPlainOutput(context)) {
+            super.process(executor);
+            return;
+        }
+
+        final SpeechFrameCache.Key key = new SpeechFrameCache.Key(
+            manager.getLanguage(),
+            manager.extractText(this.trackInfo.identifier),
+            context.outputFormat
+        );
+
+        final SpeechFrameCache.Frames frames = cache.get(key);
+
+        if (frames != null && replay(executor, frames)) {
+            return;
+        }
+
+        final SpeechFrameCache.Recorder current = new SpeechFrameCache.Recorder(cache, key);
+        recorder = current;
+
+        try {
+            super.process(executor);
+        } catch (Exception e) {
+            current.abandon();
+            throw e;
+        }
+
+        if (hasPlainOutput(context)) {
+            current.onProcessed();
+        } else {
+            current.abandon();
+        }
+    }
+
+    @Override
+    protected void loadStream(LocalAudioTrackExecutor localExecutor, HttpInterface httpInterface) throws Exception {
+        final String text = manager.extractText(this.trackInfo.identifier);
+        final byte[] audio = manager.loadSpeechAudio(text);
+
+        try (final var stream = new ByteArraySeekableInputStream(audio)) {
+            processDelegate(createAudioTrack(this.trackInfo, stream), localExecutor);
+        }
+    }
+
+    /**
+     * Feeds cached frames straight into the frame buffer of the executor.
+     *
+     * @return False if the volume or filters were changed during the replay, the remaining part then still has to be
+     * decoded normally.
+     */
+    private boolean replay(LocalAudioTrackExecutor executor, SpeechFrameCache.Frames frames) {
+        final AudioProcessingContext context = executor.getProcessingContext();
+        final Replay replay = new Replay();
+
+        executor.executeProcessingLoop(() -> {
+            while (replay.next < frames.size()) {
+                if (!hasPlainOutput(context)) {
+                    replay.diverged = true;
+                    return;
+                }
+
+                context.frameBuffer.consume(frames.frame(replay.next, 100));
+                replay.next++;
+            }
+
+            // The track is ended here rather than by the executor, which would also end it after a diverged replay.
+            context.frameBuffer.setTerminateOnEmpty();
+            context.frameBuffer.waitForTermination();
+        }, (position) -> replay.next = frames.indexOf(position), false);
+
+        if (replay.diverged) {
+            // Continue decoding from what the player is currently at, the buffered plain frames are dropped.
+            executor.setPosition(executor.getPosition());
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean hasPlainOutput(AudioProcessingContext context) {
+        final AudioPlayerOptions options = context.playerOptions;
+        return options.volumeLevel.get() == 100 && options.filterFactory.get() == null;
+    }
+
+    @Override
+    public AudioFrame provide() {
+        return record(super.provide());
+    }
+
+    @Override
+    public AudioFrame provide(long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+        return record(super.provide(timeout, unit));
+    }
+
+    @Override
+    public boolean provide(MutableAudioFrame targetFrame) {
+        return record(targetFrame, super.provide(targetFrame));
+    }
+
+    @Override
+    public boolean provide(MutableAudioFrame targetFrame, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+        return record(targetFrame, super.provide(targetFrame, timeout, unit));
+    }
+
+    private AudioFrame record(AudioFrame frame) {
+        final SpeechFrameCache.Recorder current = recorder;
+
+        if (current != null && frame != null) {
+            current.onFrame(frame);
+        }
+
+        return frame;
+    }
+
+    private boolean record(MutableAudioFrame frame, boolean provided) {
+        final SpeechFrameCache.Recorder current = recorder;
+
+        if (current != null && provided) {
+            current.onFrame(frame);
+        }
+
+        return provided;
+    }
+
     @Override
     public AudioTrack makeShallowClone() {
-        return new SpeechAudioTrack(trackInfo, getSourceManager());
+        return new SpeechAudioTrack(trackInfo, manager);
+    }
+
+    private static final class Replay {
+        private int next;
+        private boolean diverged;
     }
 }
@@ -0,0 +1,285 @@
+package org.ferrymehdi.plugin.sources.speech;
+
+import com.sedmelluq.discord.lavaplayer.format.AudioDataFormat;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.ImmutableAudioFrame;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the final output frames of completed speech playbacks, so later plays of the same phrase can skip decoding,
+ * resampling and encoding entirely.
+ * <p>
+ * The cache is bounded by the total size of the stored frames, least recently played phrases are evicted first.
+ * Only playbacks at the default volume without filters are stored and replayed, as those are baked into the frames.
+ */
+public class SpeechFrameCache {
+    // Rough per frame overhead of the arrays holding it
+    private static final int FRAME_OVERHEAD = 32;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<Key, Frames> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes
+     *         Memory budget for all cached frames, a single phrase may use up to an eighth of it
+     */
+    public SpeechFrameCache(long maxBytes) {
+        this(maxBytes, maxBytes / 8);
+    }
+
+    /**
+     * @param maxBytes
+     *         Memory budget for all cached frames
+     * @param maxEntryBytes
+     *         Phrases that need more memory than this are not cached
+     */
+    public SpeechFrameCache(long maxBytes, long maxEntryBytes) {
+        if (maxBytes <= 0 || maxEntryBytes <= 0 || maxEntryBytes > maxBytes) {
+            throw new IllegalArgumentException("Invalid cache budget " + maxBytes + "/" + maxEntryBytes);
+        }
+
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    synchronized Frames get(Key key) {
+        final Frames frames = entries.get(key);
+
+        if (frames == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return frames;
+    }
+
+    synchronized void put(Key key, Frames frames) {
+        if (frames.sizeInBytes() > maxEntryBytes) {
+            return;
+        }
+
+        final Frames previous = entries.put(key, frames);
+
+        if (previous != null) {
+            usedBytes -= previous.sizeInBytes();
+        }
+
+        usedBytes += frames.sizeInBytes();
+
+        final Iterator<Frames> iterator = entries.values().iterator();
+
+        while (usedBytes > maxBytes && iterator.hasNext()) {
+            usedBytes -= iterator.next().sizeInBytes();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    static final class Key {
+        private final String language;
+        private final String text;
+        private final AudioDataFormat format;
+
+        Key(String language, String text, AudioDataFormat format) {
+            this.language = language;
+            this.text = text;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return language.equals(other.language) && text.equals(other.text) && format.equals(other.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(language, text, format);
+        }
+    }
+
+    /**
+     * The output frames of one complete playback, in order.
+     */
+    static final class Frames {
+        private final AudioDataFormat format;
+        private final long[] timecodes;
+        private final byte[][] data;
+        private final long sizeInBytes;
+
+        Frames(AudioDataFormat format, long[] timecodes, byte[][] data) {
+            this.format = format;
+            this.timecodes = timecodes;
+            this.data = data;
+
+            long size = (long) FRAME_OVERHEAD * data.length;
+
+            for (final byte[] frame : data) {
+                size += frame.length;
+            }
+
+            this.sizeInBytes = size;
+        }
+
+        int size() {
+            return data.length;
+        }
+
+        long sizeInBytes() {
+            return sizeInBytes;
+        }
+
+        AudioFrame frame(int index, int volume) {
+            return new ImmutableAudioFrame(timecodes[index], data[index], volume, format);
+        }
+
+        /**
+         * @return The index of the first frame at or after the timecode
+         */
+        int indexOf(long timecode) {
+            final int index = Arrays.binarySearch(timecodes, timecode);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    /**
+     * Collects the frames of a playback while they are handed to the player. The frames are only stored once the
+     * playback ran to its end without seeks, volume changes or errors.
+     */
+    static final class Recorder {
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final SpeechFrameCache cache;
+        private final Key key;
+        private final long maxGap;
+
+        private long[] timecodes = new long[INITIAL_CAPACITY];
+        private byte[][] data = new byte[INITIAL_CAPACITY][];
+        private int count;
+        private long bytes;
+        private boolean abandoned;
+        private boolean terminated;
+        private boolean processed;
+
+        Recorder(SpeechFrameCache cache, Key key) {
+            this.cache = cache;
+            this.key = key;
+            this.maxGap = key.format.frameDuration() * 2;
+        }
+
+        synchronized void onFrame(AudioFrame frame) {
+            if (abandoned || terminated) {
+                return;
+            }
+
+            if (frame.isTerminator()) {
+                terminated = true;
+                storeIfComplete();
+                return;
+            }
+
+            final long timecode = frame.getTimecode();
+            final long previous = count == 0 ? 0 : timecodes[count - 1];
+
+            // Anything but a gapless sequence of default volume frames starting at zero means the output was altered.
+            if (frame.getVolume() != 100 || !key.format.equals(frame.getFormat()) ||
+                timecode < previous || timecode - previous > maxGap) {
+                abandon();
+                return;
+            }
+
+            bytes += frame.getDataLength() + FRAME_OVERHEAD;
+
+            if (bytes > cache.getMaxEntryBytes()) {
+                abandon();
+                return;
+            }
+
+            if (count == timecodes.length) {
+                timecodes = Arrays.copyOf(timecodes, count * 2);
+                data = Arrays.copyOf(data, count * 2);
+            }
+
+            final byte[] copy = new byte[frame.getDataLength()];
+            frame.getData(copy, 0);
+
+            timecodes[count] = timecode;
+            data[count] = copy;
+            count++;
+        }
+
+        /**
+         * Called when the track finished processing without an error.
+         */
+        synchronized void onProcessed() {
+            processed = true;
+            storeIfComplete();
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            timecodes = null;
+            data = null;
+        }
+
+        private void storeIfComplete() {
+            if (!abandoned && terminated && processed && count > 0) {
+                cache.put(key, new Frames(key.format, Arrays.copyOf(timecodes, count), Arrays.copyOf(data, count)));
+                abandon();
+            }
+        }
+    }
+}
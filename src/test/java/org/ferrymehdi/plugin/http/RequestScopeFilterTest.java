@@ -0,0 +1,88 @@
+package org.ferrymehdi.plugin.http;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpClientTools;
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterface;
+import com.sedmelluq.discord.lavaplayer.tools.io.HttpInterfaceManager;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.ferrymehdi.plugin.loadtest.FixtureOrigin;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Requests sent through the {@link FixtureOrigin} have to leave their scope once they are done, or cancelling the
+ * scope later aborts requests that already finished.
+ */
+class RequestScopeFilterTest {
+    private static FixtureOrigin origin;
+    private static HttpInterfaceManager manager;
+
+    @BeforeAll
+    static void startOrigin() throws Exception {
+        origin = new FixtureOrigin(2);
+        origin.start();
+
+        manager = HttpClientTools.createDefaultThreadLocalManager();
+        manager.setHttpContextFilter(new RequestScopeFilter(() -> null));
+    }
+
+    @AfterAll
+    static void stopOrigin() throws Exception {
+        if (manager != null) {
+            manager.close();
+        }
+
+        if (origin != null) {
+            origin.close();
+        }
+    }
+
+    @Test
+    void successfulFetchIsUnregistered() throws Exception {
+        final RequestScope scope = new RequestScope();
+
+        try (RequestScope.Binding ignored = scope.bind(); HttpInterface httpInterface = manager.getInterface()) {
+            fetch(httpInterface, origin.getBaseUrl() + "/");
+            assertEquals(0, scope.getRequestCount());
+        }
+
+        assertEquals(0, scope.getRequestCount());
+    }
+
+    @Test
+    void failedFetchIsUnregistered() throws Exception {
+        final RequestScope scope = new RequestScope();
+
+        try (RequestScope.Binding ignored = scope.bind(); HttpInterface httpInterface = manager.getInterface()) {
+            // Nothing listens on the discard port.
+            assertThrows(IOException.class, () -> fetch(httpInterface, "http://127.0.0.1:9/"));
+            assertEquals(0, scope.getRequestCount());
+        }
+    }
+
+    @Test
+    void streamedFetchStaysRegisteredUntilClose() throws Exception {
+        final RequestScope scope = new RequestScope();
+
+        try (RequestScope.Binding ignored = scope.bind(); HttpInterface httpInterface = manager.getInterface()) {
+            RequestScopeFilter.keepRegisteredUntilClose(httpInterface.getContext());
+            fetch(httpInterface, origin.getBaseUrl() + "/");
+            assertEquals(1, scope.getRequestCount());
+        }
+
+        assertEquals(0, scope.getRequestCount());
+    }
+
+    private static void fetch(HttpInterface httpInterface, String url) throws IOException {
+        try (final CloseableHttpResponse response = httpInterface.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+        }
+    }
+}
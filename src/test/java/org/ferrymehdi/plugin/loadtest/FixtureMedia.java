@@ -0,0 +1,299 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds small but real media files of silence, so the fixture origin serves audio the MP3 and MP4 demuxers and
+ * decoders of lavaplayer actually accept.
+ * <p>
+ * The MP3 file is a sequence of MPEG-1 Layer III frames without main data. The MP4 file has a single AAC-LC track
+ * made of silent raw AAC frames, with its {@code moov} box in front of {@code mdat}.
+ */
+public final class FixtureMedia {
+    public static final int SAMPLE_RATE = 44100;
+
+    // MPEG-1 Layer III, 128 kbps, 44.1 kHz, stereo, no CRC, no padding: 144 * 128000 / 44100 bytes per frame.
+    private static final byte[] MP3_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+    private static final int MP3_FRAME_LENGTH = 417;
+    private static final int MP3_FRAME_SAMPLES = 1152;
+
+    // Raw AAC-LC frame of silence for two channels.
+    private static final byte[] AAC_SILENT_FRAME = {0x21, 0x00, 0x49, (byte) 0x90, 0x02, 0x19, 0x00, 0x23, (byte) 0x80};
+    // AudioSpecificConfig: AAC-LC, 44.1 kHz, two channels.
+    private static final byte[] AAC_CONFIG = {0x12, 0x10};
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int AAC_FRAMES_PER_CHUNK = 43;
+
+    private FixtureMedia() {
+    }
+
+    /**
+     * @return The amount of MP3 frames in a file of the given length
+     */
+    public static int mp3FrameCount(int seconds) {
+        return (int) ((long) seconds * SAMPLE_RATE / MP3_FRAME_SAMPLES);
+    }
+
+    /**
+     * @return The amount of AAC frames in a file of the given length, rounded down to whole chunks
+     */
+    public static int aacFrameCount(int seconds) {
+        return seconds * AAC_FRAMES_PER_CHUNK;
+    }
+
+    /**
+     * @return Duration in milliseconds of the audio in {@link #silentMp3(int)}
+     */
+    public static long mp3DurationMs(int seconds) {
+        return (long) mp3FrameCount(seconds) * MP3_FRAME_SAMPLES * 1000 / SAMPLE_RATE;
+    }
+
+    /**
+     * @return Duration in milliseconds of the audio in {@link #silentMp4(int)}
+     */
+    public static long mp4DurationMs(int seconds) {
+        return (long) aacFrameCount(seconds) * AAC_FRAME_SAMPLES * 1000 / SAMPLE_RATE;
+    }
+
+    public static byte[] silentMp3(int seconds) {
+        final int frames = mp3FrameCount(seconds);
+        final byte[] file = new byte[frames * MP3_FRAME_LENGTH];
+
+        for (int i = 0; i < frames; i++) {
+            // The side info and main data stay zero, which decodes to silence.
+            System.arraycopy(MP3_HEADER, 0, file, i * MP3_FRAME_LENGTH, MP3_HEADER.length);
+        }
+
+        return file;
+    }
+
+    public static byte[] silentMp4(int seconds) {
+        try {
+            final int frames = aacFrameCount(seconds);
+            final int chunks = frames / AAC_FRAMES_PER_CHUNK;
+            final byte[] ftyp = ftyp();
+
+            // The chunk offsets depend on the size of moov, which does not depend on their values.
+            final int moovSize = moov(frames, chunks, 0).length;
+            final int mdatStart = ftyp.length + moovSize + 8;
+
+            final ByteArrayOutputStream file = new ByteArrayOutputStream();
+            file.write(ftyp);
+            file.write(moov(frames, chunks, mdatStart));
+
+            final ByteArrayOutputStream samples = new ByteArrayOutputStream();
+
+            for (int i = 0; i < frames; i++) {
+                samples.write(AAC_SILENT_FRAME);
+            }
+
+            file.write(box("mdat", samples.toByteArray()));
+            return file.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] ftyp() throws IOException {
+        final Body body = new Body();
+        body.ascii("isom");
+        body.out.writeInt(512);
+        body.ascii("isom");
+        body.ascii("iso2");
+        body.ascii("mp41");
+        return box("ftyp", body.bytes());
+    }
+
+    private static byte[] moov(int frames, int chunks, int mdatStart) throws IOException {
+        final long durationMs = (long) frames * AAC_FRAME_SAMPLES * 1000 / SAMPLE_RATE;
+
+        final Body mvhd = fullBody();
+        mvhd.out.writeInt(0);
+        mvhd.out.writeInt(0);
+        mvhd.out.writeInt(1000);
+        mvhd.out.writeInt((int) durationMs);
+        mvhd.out.writeInt(0x00010000);
+        mvhd.out.writeShort(0x0100);
+        mvhd.out.write(new byte[10]);
+        matrix(mvhd);
+        mvhd.out.write(new byte[24]);
+        mvhd.out.writeInt(2);
+
+        final Body tkhd = new Body();
+        tkhd.out.writeInt(0x00000003);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt(1);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt((int) durationMs);
+        tkhd.out.write(new byte[8]);
+        tkhd.out.writeShort(0);
+        tkhd.out.writeShort(0);
+        tkhd.out.writeShort(0x0100);
+        tkhd.out.writeShort(0);
+        matrix(tkhd);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt(0);
+
+        final Body mdhd = fullBody();
+        mdhd.out.writeInt(0);
+        mdhd.out.writeInt(0);
+        mdhd.out.writeInt(SAMPLE_RATE);
+        mdhd.out.writeInt(frames * AAC_FRAME_SAMPLES);
+        mdhd.out.writeShort(0x55C4);
+        mdhd.out.writeShort(0);
+
+        final Body hdlr = fullBody();
+        hdlr.out.writeInt(0);
+        hdlr.ascii("soun");
+        hdlr.out.write(new byte[12]);
+        hdlr.ascii("SoundHandler\0");
+
+        final Body smhd = fullBody();
+        smhd.out.writeInt(0);
+
+        final Body url = new Body();
+        url.out.writeInt(0x00000001);
+
+        final Body dref = fullBody();
+        dref.out.writeInt(1);
+        dref.out.write(box("url ", url.bytes()));
+
+        final Body stbl = new Body();
+        stbl.out.write(box("stsd", stsd()));
+        stbl.out.write(box("stts", table(new int[][] {{frames, AAC_FRAME_SAMPLES}})));
+        stbl.out.write(box("stsc", table(new int[][] {{1, AAC_FRAMES_PER_CHUNK, 1}})));
+
+        final Body stsz = fullBody();
+        stsz.out.writeInt(0);
+        stsz.out.writeInt(frames);
+
+        for (int i = 0; i < frames; i++) {
+            stsz.out.writeInt(AAC_SILENT_FRAME.length);
+        }
+
+        stbl.out.write(box("stsz", stsz.bytes()));
+
+        final Body stco = fullBody();
+        stco.out.writeInt(chunks);
+
+        for (int i = 0; i < chunks; i++) {
+            stco.out.writeInt(mdatStart + i * AAC_FRAMES_PER_CHUNK * AAC_SILENT_FRAME.length);
+        }
+
+        stbl.out.write(box("stco", stco.bytes()));
+
+        final byte[] minf = concat(box("smhd", smhd.bytes()), box("dinf", box("dref", dref.bytes())), box("stbl", stbl.bytes()));
+        final byte[] mdia = concat(box("mdhd", mdhd.bytes()), box("hdlr", hdlr.bytes()), box("minf", minf));
+        final byte[] trak = concat(box("tkhd", tkhd.bytes()), box("mdia", mdia));
+
+        return box("moov", concat(box("mvhd", mvhd.bytes()), box("trak", trak)));
+    }
+
+    private static byte[] stsd() throws IOException {
+        final Body decoderSpecificInfo = new Body();
+        decoderSpecificInfo.out.write(AAC_CONFIG);
+
+        final Body decoderConfig = new Body();
+        decoderConfig.out.writeByte(0x40);
+        decoderConfig.out.writeByte(0x15);
+        decoderConfig.out.write(new byte[3]);
+        decoderConfig.out.writeInt(128000);
+        decoderConfig.out.writeInt(128000);
+        decoderConfig.out.write(descriptor(0x05, decoderSpecificInfo.bytes()));
+
+        final Body esDescriptor = new Body();
+        esDescriptor.out.writeShort(1);
+        esDescriptor.out.writeByte(0);
+        esDescriptor.out.write(descriptor(0x04, decoderConfig.bytes()));
+        esDescriptor.out.write(descriptor(0x06, new byte[] {0x02}));
+
+        final Body esds = fullBody();
+        esds.out.write(descriptor(0x03, esDescriptor.bytes()));
+
+        final Body mp4a = new Body();
+        mp4a.out.write(new byte[6]);
+        mp4a.out.writeShort(1);
+        mp4a.out.write(new byte[8]);
+        mp4a.out.writeShort(2);
+        mp4a.out.writeShort(16);
+        mp4a.out.writeShort(0);
+        mp4a.out.writeShort(0);
+        mp4a.out.writeInt(SAMPLE_RATE << 16);
+        mp4a.out.write(box("esds", esds.bytes()));
+
+        final Body stsd = fullBody();
+        stsd.out.writeInt(1);
+        stsd.out.write(box("mp4a", mp4a.bytes()));
+        return stsd.bytes();
+    }
+
+    private static byte[] table(int[][] entries) throws IOException {
+        final Body body = fullBody();
+        body.out.writeInt(entries.length);
+
+        for (final int[] entry : entries) {
+            for (final int value : entry) {
+                body.out.writeInt(value);
+            }
+        }
+
+        return body.bytes();
+    }
+
+    private static void matrix(Body body) throws IOException {
+        for (final int value : new int[] {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000}) {
+            body.out.writeInt(value);
+        }
+    }
+
+    private static byte[] descriptor(int tag, byte[] payload) {
+        // Every descriptor here is shorter than 128 bytes, so its length fits the single byte form.
+        final byte[] result = new byte[payload.length + 2];
+        result[0] = (byte) tag;
+        result[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, result, 2, payload.length);
+        return result;
+    }
+
+    private static byte[] box(String type, byte[] payload) throws IOException {
+        final Body body = new Body();
+        body.out.writeInt(payload.length + 8);
+        body.ascii(type);
+        body.out.write(payload);
+        return body.bytes();
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+        for (final byte[] part : parts) {
+            result.write(part);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static Body fullBody() throws IOException {
+        final Body body = new Body();
+        // Version 0 and no flags.
+        body.out.writeInt(0);
+        return body;
+    }
+
+    private static final class Body {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private void ascii(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private byte[] bytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded HTTP server standing in for pornhub.com, its CDN and translate.google.com.
+ * <p>
+ * Pages and JSON documents are rendered from the templates in {@code fixtures/pornhub}. Media is a few seconds of
+ * silence built by {@link FixtureMedia}, unless a file is given through the {@code fixture.mp4} / {@code fixture.mp3}
+ * system properties, and is served with support for range requests. Latency and errors can be injected for every
+ * route.
+ */
+public class FixtureOrigin implements AutoCloseable {
+    public static final int MEDIA_SECONDS = 3;
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String watchTemplate;
+    private final String searchTemplate;
+    private final String searchItemTemplate;
+    private final String mediaTemplate;
+    private final byte[] mp4Payload;
+    private final byte[] mp3Payload;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile int searchPages = 5;
+    private volatile int resultsPerPage = 32;
+    private volatile boolean alternateDefinition;
+    private volatile long primaryMediaLatencyMs;
+
+    public FixtureOrigin(int threads) throws IOException {
+        this.watchTemplate = resource("fixtures/pornhub/watch.html");
+        this.searchTemplate = resource("fixtures/pornhub/search.html");
+        this.searchItemTemplate = resource("fixtures/pornhub/search-item.html");
+        this.mediaTemplate = resource("fixtures/pornhub/media.json");
+        this.mp4Payload = payload("fixture.mp4", () -> FixtureMedia.silentMp4(MEDIA_SECONDS));
+        this.mp3Payload = payload("fixture.mp3", () -> FixtureMedia.silentMp3(MEDIA_SECONDS));
+
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.server.setExecutor(executor);
+
+        route("/view_video.php", this::watchPage);
+        route("/video/search", this::searchPage);
+        route("/video/get_media", this::mediaJson);
+        route("/media/", (exchange, query) -> sendMedia(exchange, "video/mp4", mp4Payload));
+        route("/translate_tts", (exchange, query) -> sendMedia(exchange, "audio/mpeg", mp3Payload));
+        route("/", (exchange, query) -> send(exchange, 200, "text/html", new byte[0]));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param latencyMs
+     *         Fixed delay before every response
+     * @param jitterMs
+     *         Random extra delay of up to this much
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    /**
+     * @param errorRate
+     *         Share of requests, between 0 and 1, that are answered with the error status instead
+     * @param errorStatus
+     *         The status to answer with, for example 429 or 503
+     */
+    public void setErrors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * @param alternateDefinition
+     *         Whether watch pages list a second mp4 definition, which is what media info requests are hedged with
+     */
+    public void setAlternateDefinition(boolean alternateDefinition) {
+        this.alternateDefinition = alternateDefinition;
+    }
+
+    /**
+     * @param primaryMediaLatencyMs
+     *         Extra delay for media info requests of the first definition, the alternate one answers without it
+     */
+    public void setPrimaryMediaLatency(long primaryMediaLatencyMs) {
+        this.primaryMediaLatencyMs = primaryMediaLatencyMs;
+    }
+
+    public void setSearchPages(int searchPages) {
+        this.searchPages = searchPages;
+    }
+
+    /**
+     * @return Whether the media served is the built-in silence, whose length is {@link #MEDIA_SECONDS}
+     */
+    public boolean isBuiltInMedia() {
+        return System.getProperty("fixture.mp4") == null && System.getProperty("fixture.mp3") == null;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getInjectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    private void watchPage(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String viewkey = query.getOrDefault("viewkey", "");
+
+        if (viewkey.isEmpty()) {
+            send(exchange, 404, "text/html", new byte[0]);
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Set-Cookie", "ss=" + Long.toHexString(viewkey.hashCode()) + "; path=/; HttpOnly");
+        exchange.getResponseHeaders().add("Set-Cookie", "fg_" + viewkey.length() + "=1; path=/");
+        send(exchange, 200, "text/html; charset=UTF-8", render(watchTemplate, videoValues(viewkey)));
+    }
+
+    private void searchPage(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String search = query.getOrDefault("search", "");
+        final int page = Integer.parseInt(query.getOrDefault("page", "1"));
+
+        if (page > searchPages) {
+            send(exchange, 404, "text/html", new byte[0]);
+            return;
+        }
+
+        final StringBuilder items = new StringBuilder();
+
+        for (int i = 0; i < resultsPerPage; i++) {
+            final String viewkey = "ph" + Integer.toHexString((search + "/" + page + "/" + i).hashCode() & 0x7fffffff);
+            items.append(render(searchItemTemplate, videoValues(viewkey)));
+        }
+
+        final Map<String, String> values = new HashMap<>();
+        values.put("query", search);
+        values.put("items", items.toString());
+
+        send(exchange, 200, "text/html; charset=UTF-8", render(searchTemplate, values));
+    }
+
+    private void mediaJson(HttpExchange exchange, Map<String, String> query) throws IOException {
+        if (primaryMediaLatencyMs > 0 && !"alt".equals(query.get("s"))) {
+            try {
+                Thread.sleep(primaryMediaLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        send(exchange, 200, "application/json", render(mediaTemplate, videoValues(query.getOrDefault("v", ""))));
+    }
+
+    private Map<String, String> videoValues(String viewkey) {
+        final Map<String, String> values = new HashMap<>();
+        final int id = viewkey.hashCode() & 0x7fffffff;
+
+        values.put("base", getBaseUrl());
+        values.put("viewkey", viewkey);
+        values.put("videoId", Integer.toString(id));
+        values.put("title", "Fixture video " + viewkey);
+        values.put("author", "fixture-model-" + (id % 97));
+        values.put("duration", Integer.toString(60 + id % 1200));
+        values.put("durationText", (1 + id % 20) + ":" + String.format("%02d", id % 60));
+        values.put("alternateDefinition", alternateDefinition
+            ? ",{\"defaultQuality\":false,\"format\":\"mp4\",\"videoUrl\":\"" + getBaseUrl() + "/video/get_media?s=alt&v=" + viewkey + "\",\"quality\":[]}"
+            : "");
+        return values;
+    }
+
+    private void route(String path, Route route) {
+        server.createContext(path, new FaultInjectingHandler(route));
+    }
+
+    private static String render(String template, Map<String, String> values) {
+        String result = template;
+
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            result = result.replace("{{" + entry.getKey() + "}}", entry.getValue());
+        }
+
+        return result;
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendMedia(HttpExchange exchange, String contentType, byte[] media) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final Matcher matcher = range != null ? RANGE.matcher(range.trim()) : null;
+
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        if (matcher == null || !matcher.matches()) {
+            send(exchange, 200, contentType, media);
+            return;
+        }
+
+        final int start = (int) Math.min(Long.parseLong(matcher.group(1)), Integer.MAX_VALUE);
+        final int end = matcher.group(2).isEmpty()
+            ? media.length - 1
+            : (int) Math.min(Long.parseLong(matcher.group(2)), media.length - 1);
+
+        if (start >= media.length || end < start) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + media.length);
+            send(exchange, 416, "text/plain", new byte[0]);
+            return;
+        }
+
+        final byte[] part = new byte[end - start + 1];
+        System.arraycopy(media, start, part, 0, part.length);
+
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + media.length);
+        send(exchange, 206, contentType, part);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+
+        try (final OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        final Map<String, String> query = new HashMap<>();
+
+        if (rawQuery == null) {
+            return query;
+        }
+
+        for (final String pair : rawQuery.split("&")) {
+            final int equals = pair.indexOf('=');
+
+            if (equals > 0) {
+                query.put(
+                    URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8)
+                );
+            }
+        }
+
+        return query;
+    }
+
+    private static String resource(String name) throws IOException {
+        try (final InputStream input = FixtureOrigin.class.getClassLoader().getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] payload(String property, Supplier<byte[]> builtIn) throws IOException {
+        final String path = System.getProperty(property);
+        return path != null ? Files.readAllBytes(Path.of(path)) : builtIn.get();
+    }
+
+    private interface Route {
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException;
+    }
+
+    private class FaultInjectingHandler implements HttpHandler {
+        private final Route route;
+
+        private FaultInjectingHandler(Route route) {
+            this.route = route;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+
+            try {
+                final long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+
+                if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    injectedErrors.incrementAndGet();
+
+                    if (errorStatus == 429) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                    }
+
+                    send(exchange, errorStatus, "text/plain", "Injected fault");
+                    return;
+                }
+
+                route.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Plays a track through a real player the way a bot does, pulling frames until the track ends. This runs the whole
+ * playback path of a source: resolving the media url, streaming it, demuxing, decoding and encoding the output.
+ */
+final class FixturePlayback {
+    private FixturePlayback() {
+    }
+
+    /**
+     * @param timeoutMs
+     *         How long the playback may take, frames are pulled as fast as they are produced
+     * @throws TimeoutException
+     *         If the track did not end in time
+     */
+    static Result play(AudioPlayerManager manager, AudioTrack track, long timeoutMs) throws InterruptedException, TimeoutException {
+        final AudioPlayer player = manager.createPlayer();
+        final CompletableFuture<AudioTrackEndReason> end = new CompletableFuture<>();
+        final AtomicReference<FriendlyException> error = new AtomicReference<>();
+
+        player.addListener(new AudioEventAdapter() {
+            @Override
+            public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
+                error.set(exception);
+            }
+
+            @Override
+            public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+                end.complete(endReason);
+            }
+        });
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        int frames = 0;
+
+        try {
+            player.playTrack(track);
+
+            while (true) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw new TimeoutException("Track " + track.getIdentifier() + " did not end within " + timeoutMs + "ms");
+                }
+
+                AudioFrame frame;
+
+                try {
+                    frame = player.provide(100, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ignored) {
+                    frame = null;
+                }
+
+                if (frame != null && !frame.isTerminator()) {
+                    frames++;
+                } else if (frame == null && end.isDone()) {
+                    break;
+                }
+            }
+        } finally {
+            player.destroy();
+        }
+
+        final long frameDuration = manager.getConfiguration().getOutputFormat().frameDuration();
+        return new Result(end.join(), frames, frames * frameDuration, error.get());
+    }
+
+    static final class Result {
+        final AudioTrackEndReason endReason;
+        final int frames;
+        final long durationMs;
+        final FriendlyException error;
+
+        private Result(AudioTrackEndReason endReason, int frames, long durationMs, FriendlyException error) {
+            this.endReason = endReason;
+            this.frames = frames;
+            this.durationMs = durationMs;
+            this.error = error;
+        }
+
+        /**
+         * @throws IllegalStateException
+         *         If the track did not play to its end
+         */
+        Result checkFinished() {
+            if (error != null) {
+                throw new IllegalStateException("Playback failed after " + frames + " frames", error);
+            }
+
+            if (endReason != AudioTrackEndReason.FINISHED || frames == 0) {
+                throw new IllegalStateException("Playback ended with " + endReason + " after " + frames + " frames");
+            }
+
+            return this;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import org.ferrymehdi.plugin.sources.pornhub.PornHubAudioSourceManager;
+import org.ferrymehdi.plugin.sources.speech.SpeechAudioSourceManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trip of the sources through the {@link FixtureOrigin}: loads a video, searches, and plays a PornHub video and
+ * a speech phrase to their end through a real player, checking that the whole fixture media was decoded.
+ */
+class FixtureRoundTripTest {
+    // Decoders drop or pad a few frames at the edges of a file.
+    private static final long DURATION_TOLERANCE_MS = 250;
+    private static final long PLAYBACK_TIMEOUT_MS = 30_000;
+
+    private static FixtureOrigin origin;
+    private static AudioPlayerManager manager;
+    private static PornHubAudioSourceManager pornHub;
+    private static SpeechAudioSourceManager speech;
+
+    @BeforeAll
+    static void startOrigin() throws Exception {
+        origin = new FixtureOrigin(8);
+        origin.start();
+
+        manager = new DefaultAudioPlayerManager();
+        pornHub = new PornHubAudioSourceManager(origin.getBaseUrl());
+        speech = new SpeechAudioSourceManager("en", origin.getBaseUrl() + "/translate_tts");
+
+        manager.registerSourceManager(pornHub);
+        manager.registerSourceManager(speech);
+    }
+
+    @AfterAll
+    static void stopOrigin() throws Exception {
+        if (manager != null) {
+            manager.shutdown();
+        }
+
+        if (origin != null) {
+            origin.close();
+        }
+    }
+
+    @Test
+    void loadsVideo() {
+        final AudioTrack video = loadVideo();
+
+        assertEquals("Fixture video phsmoke", video.getInfo().title);
+    }
+
+    @Test
+    void searches() throws Exception {
+        final AudioPlaylist search = assertInstanceOf(AudioPlaylist.class, pornHub.attemptSearch("smoke"));
+
+        assertFalse(search.getTracks().isEmpty(), "Search returned no results");
+    }
+
+    @Test
+    @Timeout(60)
+    void playsVideoToTheEnd() throws Exception {
+        final FixturePlayback.Result result = FixturePlayback.play(manager, loadVideo(), PLAYBACK_TIMEOUT_MS);
+
+        assertFinished(result);
+
+        if (origin.isBuiltInMedia()) {
+            assertDuration(FixtureMedia.mp4DurationMs(FixtureOrigin.MEDIA_SECONDS), result);
+        }
+    }
+
+    @Test
+    @Timeout(60)
+    void playsSpeechToTheEnd() throws Exception {
+        final AudioItem phrase = speech.loadItem(manager, new AudioReference("speak:Fixture smoke test", null));
+        final FixturePlayback.Result result = FixturePlayback.play(manager, assertInstanceOf(AudioTrack.class, phrase), PLAYBACK_TIMEOUT_MS);
+
+        assertFinished(result);
+
+        if (origin.isBuiltInMedia()) {
+            assertDuration(FixtureMedia.mp3DurationMs(FixtureOrigin.MEDIA_SECONDS), result);
+        }
+    }
+
+    private static AudioTrack loadVideo() {
+        return assertInstanceOf(AudioTrack.class, pornHub.loadItem(manager, new AudioReference(
+            "https://www.pornhub.com/view_video.php?viewkey=phsmoke", null
+        )));
+    }
+
+    private static void assertFinished(FixturePlayback.Result result) {
+        assertNull(result.error, "Playback failed after " + result.frames + " frames");
+        assertEquals(AudioTrackEndReason.FINISHED, result.endReason);
+        assertTrue(result.frames > 0, "No frames were played");
+    }
+
+    private static void assertDuration(long expectedMs, FixturePlayback.Result result) {
+        assertTrue(
+            Math.abs(result.durationMs - expectedMs) <= DURATION_TOLERANCE_MS,
+            "Played " + result.durationMs + "ms of audio, expected " + expectedMs + "ms"
+        );
+    }
+}
@@ -0,0 +1,138 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import org.ferrymehdi.plugin.IdentifierFilter;
+import org.ferrymehdi.plugin.sources.pornhub.PornHubAudioSourceManager;
+import org.ferrymehdi.plugin.sources.speech.SpeechAudioSourceManager;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Measures what it costs a source to reject an identifier that belongs to another source, comparing the regular
+ * expression check the PornHub source used to run on every identifier with the {@link IdentifierFilter}.
+ * <p>
+ * Arguments are {@code key=value} pairs: {@code iterations} (5000000) and {@code rounds} (5). Run it with
+ * {@code ./gradlew routingBenchmark}.
+ */
+public class IdentifierRoutingBenchmark {
+    // The check PornHubAudioSourceManager.loadItem() ran on every identifier before the filter.
+    private static final Pattern LEGACY_VIDEO_REGEX = Pattern.compile(
+        "^https?://([a-z]+\\.)?pornhub\\.(com|net|org)/view_video\\.php\\?viewkey=([a-zA-Z0-9]+)(?:.*)$"
+    );
+
+    private static final String[] FOREIGN = {
+        "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+        "https://youtu.be/dQw4w9WgXcQ?t=42",
+        "https://soundcloud.com/artist/some-track-name",
+        "https://open.spotify.com/track/4uLU6hMCjMI75M1A2tKUQC",
+        "https://www.twitch.tv/somechannel",
+        "ytsearch:never gonna give you up",
+        "scsearch:lofi hip hop",
+        "speak:hello there, this is a text to speech message",
+        "https://cdn.discordapp.com/attachments/1/2/song.mp3",
+        "local/file/path.mp3",
+    };
+
+    private static final String[] CANDIDATES = {
+        "https://www.pornhub.com/view_video.php?viewkey=ph5e1a2b3c4d5e6",
+        "phsearch:fixture query",
+    };
+
+    private static final String[] FOREIGN_TO_SPEECH = {
+        "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+        "ytsearch:never gonna give you up",
+        "https://www.pornhub.com/view_video.php?viewkey=ph5e1a2b3c4d5e6",
+        "phsearch:fixture query",
+    };
+
+    private final long iterations;
+    private final int rounds;
+
+    private IdentifierRoutingBenchmark(long iterations, int rounds) {
+        this.iterations = iterations;
+        this.rounds = rounds;
+    }
+
+    public static void main(String[] args) {
+        long iterations = 5_000_000;
+        int rounds = 5;
+
+        for (final String arg : args) {
+            final String[] parts = arg.split("=", 2);
+
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+
+            switch (parts[0]) {
+                case "iterations" -> iterations = Long.parseLong(parts[1]);
+                case "rounds" -> rounds = Integer.parseInt(parts[1]);
+                default -> throw new IllegalArgumentException("Unknown option " + parts[0]);
+            }
+        }
+
+        new IdentifierRoutingBenchmark(iterations, rounds).run();
+    }
+
+    private void run() {
+        final PornHubAudioSourceManager pornHub = new PornHubAudioSourceManager("http://127.0.0.1:9");
+        final SpeechAudioSourceManager speech = new SpeechAudioSourceManager("en");
+        final IdentifierFilter filter = pornHub.getIdentifierFilter();
+
+        for (final String identifier : FOREIGN) {
+            if (filter.mayMatch(identifier) || LEGACY_VIDEO_REGEX.matcher(identifier).matches()) {
+                throw new IllegalStateException("Foreign identifier accepted: " + identifier);
+            }
+        }
+
+        for (final String identifier : CANDIDATES) {
+            if (!filter.mayMatch(identifier)) {
+                throw new IllegalStateException("Candidate rejected: " + identifier);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%d iterations per round, %d rounds, best round reported%n", iterations, rounds);
+
+        measure("legacy regex reject", FOREIGN, (identifier) -> LEGACY_VIDEO_REGEX.matcher(identifier).matches());
+        measure("filter reject", FOREIGN, filter::mayMatch);
+        measure("pornhub loadItem reject", FOREIGN, (identifier) -> pornHub.loadItem(null, new AudioReference(identifier, null)) != null);
+        measure("speech loadItem reject", FOREIGN_TO_SPEECH, (identifier) -> speech.loadItem(null, new AudioReference(identifier, null)) != null);
+        measure("filter accept", CANDIDATES, filter::mayMatch);
+
+        pornHub.shutdown();
+        speech.shutdown();
+    }
+
+    private void measure(String name, String[] identifiers, Predicate<String> check) {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        double bestNanos = Double.MAX_VALUE;
+        double bestBytes = Double.MAX_VALUE;
+        long sink = 0;
+
+        // The first round only warms up the JIT.
+        for (int round = 0; round <= rounds; round++) {
+            final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            final long start = System.nanoTime();
+
+            for (long i = 0; i < iterations; i++) {
+                if (check.test(identifiers[(int) (i % identifiers.length)])) {
+                    sink++;
+                }
+            }
+
+            final long elapsed = System.nanoTime() - start;
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+            if (round > 0) {
+                bestNanos = Math.min(bestNanos, (double) elapsed / iterations);
+                bestBytes = Math.min(bestBytes, (double) allocated / iterations);
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "%-24s %8.1f ns/op %8.1f B/op (matches %d)%n", name, bestNanos, bestBytes, sink);
+    }
+}
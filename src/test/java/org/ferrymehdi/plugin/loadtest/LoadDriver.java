@@ -0,0 +1,228 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.ferrymehdi.plugin.sources.pornhub.PornHubAudioSourceManager;
+import org.ferrymehdi.plugin.sources.pornhub.PornHubAudioTrack;
+import org.ferrymehdi.plugin.sources.speech.SpeechAudioSourceManager;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the sources against a {@link FixtureOrigin} and reports throughput and latency per operation.
+ * <p>
+ * Arguments are {@code key=value} pairs:
+ * <ul>
+ *     <li>{@code ops} - comma separated operations: {@code load}, {@code search}, {@code resolve}, {@code playback},
+ *     {@code speech}. The last two play a video or a phrase to its end through a real player.</li>
+ *     <li>{@code concurrency} - amount of parallel callers (16)</li>
+ *     <li>{@code requests} - measured calls per operation (2000)</li>
+ *     <li>{@code warmup} - unmeasured calls per operation before measuring (200)</li>
+ *     <li>{@code latencyMs} / {@code jitterMs} - injected origin latency (0 / 0)</li>
+ *     <li>{@code errorRate} / {@code errorStatus} - injected origin errors (0 / 503)</li>
+ *     <li>{@code keys} - amount of distinct viewkeys and phrases to cycle through (500)</li>
+ * </ul>
+ * Run it with {@code ./gradlew loadTest -PloadTestArgs="ops=load,search concurrency=32"}.
+ */
+public class LoadDriver {
+    private static final long PLAYBACK_TIMEOUT_MS = 30_000;
+
+    private final Map<String, String> options;
+    private final int concurrency;
+    private final int requests;
+    private final int warmup;
+    private final int keys;
+
+    private LoadDriver(Map<String, String> options) {
+        this.options = options;
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.requests = Integer.parseInt(options.getOrDefault("requests", "2000"));
+        this.warmup = Integer.parseInt(options.getOrDefault("warmup", "200"));
+        this.keys = Integer.parseInt(options.getOrDefault("keys", "500"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+
+        for (final String arg : args) {
+            final int equals = arg.indexOf('=');
+
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+
+        new LoadDriver(options).run();
+    }
+
+    private void run() throws Exception {
+        try (final FixtureOrigin origin = new FixtureOrigin(Math.max(8, concurrency * 2))) {
+            origin.start();
+
+            final AudioPlayerManager manager = new DefaultAudioPlayerManager();
+            final PornHubAudioSourceManager pornHub = new PornHubAudioSourceManager(origin.getBaseUrl());
+            final SpeechAudioSourceManager speech = new SpeechAudioSourceManager("en", origin.getBaseUrl() + "/translate_tts");
+
+            manager.registerSourceManager(pornHub);
+            manager.registerSourceManager(speech);
+
+            final Map<String, Operation> operations = new LinkedHashMap<>();
+            operations.put("load", (n) -> checkItem(pornHub.loadItem(manager, new AudioReference(
+                "https://www.pornhub.com/view_video.php?viewkey=ph" + n, null
+            ))));
+            operations.put("search", (n) -> checkItem(pornHub.attemptSearch("fixture query " + n)));
+            operations.put("resolve", (n) -> new PornHubAudioTrack(videoInfo("ph" + n), pornHub).getPlaybackUrl());
+            operations.put("playback", (n) -> FixturePlayback.play(
+                manager,
+                new PornHubAudioTrack(videoInfo("ph" + n), pornHub),
+                PLAYBACK_TIMEOUT_MS
+            ).checkFinished());
+            operations.put("speech", (n) -> FixturePlayback.play(
+                manager,
+                (AudioTrack) checkItem(speech.loadItem(manager, new AudioReference("speak:Fixture phrase number " + n, null))),
+                PLAYBACK_TIMEOUT_MS
+            ).checkFinished());
+
+            final List<String> selected = Arrays.asList(options.getOrDefault("ops", "load,search,resolve,playback,speech").split(","));
+
+            System.out.printf(Locale.ROOT, "Fixture origin at %s, concurrency %d, %d requests per operation%n",
+                origin.getBaseUrl(), concurrency, requests);
+
+            for (final String name : selected) {
+                final Operation operation = operations.get(name.trim());
+
+                if (operation == null) {
+                    throw new IllegalArgumentException("Unknown operation " + name + ", expected one of " + operations.keySet());
+                }
+
+                // Faults are only injected into the measured phase, so warmup always leaves the pools populated.
+                origin.setLatency(0, 0);
+                origin.setErrors(0, 503);
+                measure(operation, warmup);
+
+                origin.setLatency(
+                    Long.parseLong(options.getOrDefault("latencyMs", "0")),
+                    Long.parseLong(options.getOrDefault("jitterMs", "0"))
+                );
+                origin.setErrors(
+                    Double.parseDouble(options.getOrDefault("errorRate", "0")),
+                    Integer.parseInt(options.getOrDefault("errorStatus", "503"))
+                );
+
+                final long originRequests = origin.getRequestCount();
+                final Result result = measure(operation, requests);
+                result.print(name.trim(), origin.getRequestCount() - originRequests);
+            }
+
+            manager.shutdown();
+        }
+    }
+
+    private Result measure(Operation operation, int count) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicLong errors = new AtomicLong();
+        final long[] latencies = new long[count];
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                try {
+                    int index;
+
+                    while ((index = next.getAndIncrement()) < count) {
+                        final long callStart = System.nanoTime();
+
+                        try {
+                            operation.run(index % keys);
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+
+                        latencies[index] = System.nanoTime() - callStart;
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await();
+        workers.shutdown();
+
+        return new Result(latencies, errors.get(), System.nanoTime() - start);
+    }
+
+    private static AudioItem checkItem(AudioItem item) {
+        if (item == null) {
+            throw new IllegalStateException("Nothing was loaded");
+        }
+
+        return item;
+    }
+
+    private static AudioTrackInfo videoInfo(String viewkey) {
+        return new AudioTrackInfo("Fixture video", "fixture", Units.CONTENT_LENGTH_UNKNOWN, viewkey, false, null);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int key) throws Exception;
+    }
+
+    private static final class Result {
+        private final long[] latencies;
+        private final long errors;
+        private final long elapsedNanos;
+
+        private Result(long[] latencies, long errors, long elapsedNanos) {
+            this.latencies = latencies.clone();
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(this.latencies);
+        }
+
+        private double percentileMs(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+
+            final int index = (int) Math.min(latencies.length - 1, Math.ceil(percentile * latencies.length) - 1);
+            return latencies[Math.max(0, index)] / 1_000_000.0;
+        }
+
+        private void print(String name, long originRequests) {
+            final double seconds = elapsedNanos / 1_000_000_000.0;
+
+            System.out.printf(
+                Locale.ROOT,
+                "%-9s %8.1f ops/s  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms  errors %d/%d  origin requests %d%n",
+                name,
+                latencies.length / seconds,
+                percentileMs(0.50),
+                percentileMs(0.99),
+                percentileMs(1.0),
+                errors,
+                latencies.length,
+                originRequests
+            );
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.ferrymehdi.plugin.loadtest;
+
+import org.ferrymehdi.plugin.http.RequestHedger;
+import org.ferrymehdi.plugin.sources.pornhub.PornHubAudioSourceManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Resolves a media url against the {@link FixtureOrigin} while the first definition answers slowly, the hedge for the
+ * alternate definition has to win.
+ */
+class MediaHedgingTest {
+    private static final long PRIMARY_LATENCY_MS = 3000;
+
+    @Test
+    @Timeout(30)
+    void slowMediaInfoIsHedged() throws Exception {
+        try (final FixtureOrigin origin = new FixtureOrigin(8)) {
+            origin.setAlternateDefinition(true);
+            origin.setPrimaryMediaLatency(PRIMARY_LATENCY_MS);
+            origin.start();
+
+            final PornHubAudioSourceManager pornHub = new PornHubAudioSourceManager(origin.getBaseUrl());
+            // Hedge after 50ms, and allow a hedge for every request.
+            final RequestHedger hedger = new RequestHedger(0.95, 1, 10, 50);
+            pornHub.setMediaHedger(hedger);
+
+            try {
+                final long start = System.nanoTime();
+                final String mediaUrl = pornHub.resolvePlaybackUrl("phhedge");
+                final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                assertTrue(mediaUrl.contains("/media/phhedge-"), "Unexpected media url " + mediaUrl);
+                assertEquals(1, hedger.getHedgeCount());
+                assertEquals(1, hedger.getHedgesWon());
+                assertTrue(elapsedMs < PRIMARY_LATENCY_MS, "Resolving took " + elapsedMs + "ms, the hedge did not win");
+            } finally {
+                pornHub.shutdown();
+            }
+        }
+    }
+}